@@ -0,0 +1,176 @@
+package org.pepsoft.util.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.pepsoft.util.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of filling a grid of {@link #SIZE} by {@code SIZE} points with
+ * the bulk grid methods of the noise generators, compared to sampling the same
+ * points one by one. The reported time is per grid.
+ *
+ * @author pepijn
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GridBenchmark {
+    @Benchmark
+    public float[] perlinNoise2DScalar() {
+        for (int j = 0; j < SIZE; j++) {
+            for (int i = 0; i < SIZE; i++) {
+                out[j * SIZE + i] = perlinNoise.getPerlinNoise(X0 + i * STEP, Y0 + j * STEP);
+            }
+        }
+        return out;
+    }
+
+    @Benchmark
+    public float[] perlinNoise2DGrid() {
+        perlinNoise.getPerlinNoiseGrid(out, X0, Y0, STEP, SIZE, SIZE);
+        return out;
+    }
+
+    @Benchmark
+    public float[] perlinNoise2DSampler() {
+        sampler.getPerlinNoiseGrid(out, X0, Y0, STEP, SIZE, SIZE);
+        return out;
+    }
+
+    @Benchmark
+    public long[] perlinNoise2DThresholdScalar() {
+        perlinNoise.getPerlinNoiseGrid(out, X0, Y0, STEP, SIZE, SIZE);
+        Arrays.fill(mask, 0L);
+        for (int i = 0; i < SIZE * SIZE; i++) {
+            if (out[i] >= LEVEL) {
+                mask[i >>> 6] |= 1L << i;
+            }
+        }
+        return mask;
+    }
+
+    @Benchmark
+    public long[] perlinNoise2DThresholdMask() {
+        perlinNoise.getPerlinNoiseMask(mask, X0, Y0, STEP, SIZE, SIZE, LEVEL);
+        return mask;
+    }
+
+    @Benchmark
+    public float[] perlinNoise3DScalar() {
+        for (int k = 0; k < DEPTH; k++) {
+            for (int j = 0; j < SIZE; j++) {
+                for (int i = 0; i < SIZE; i++) {
+                    volume[(k * SIZE + j) * SIZE + i] = perlinNoise.getPerlinNoise(X0 + i * STEP, Y0 + j * STEP, k * STEP);
+                }
+            }
+        }
+        return volume;
+    }
+
+    @Benchmark
+    public float[] perlinNoise3DVolume() {
+        perlinNoise.getPerlinNoiseVolume(volume, X0, Y0, 0.0, STEP, SIZE, SIZE, DEPTH);
+        return volume;
+    }
+
+    @Benchmark
+    public float[] perlinNoise2DDerivativesGrid() {
+        perlinNoise.getPerlinNoiseGridWithDerivatives(out, dx, dy, X0, Y0, STEP, SIZE, SIZE);
+        return out;
+    }
+
+    @Benchmark
+    public float[] fastSimplex2DScalar() {
+        for (int j = 0; j < SIZE; j++) {
+            for (int i = 0; i < SIZE; i++) {
+                out[j * SIZE + i] = fastSimplex.sampleResult(X0 + i * STEP, Y0 + j * STEP);
+            }
+        }
+        return out;
+    }
+
+    @Benchmark
+    public float[] fastSimplex2DGrid() {
+        fastSimplex.sampleGrid(out, X0, Y0, STEP, SIZE, SIZE);
+        return out;
+    }
+
+    @Benchmark
+    public float[] fastSimplex2DDerivativesScalar() {
+        for (int j = 0; j < SIZE; j++) {
+            for (int i = 0; i < SIZE; i++) {
+                fastSimplex.sampleWithDerivatives(X0 + i * STEP, Y0 + j * STEP, sample);
+                out[j * SIZE + i] = sample[0];
+                dx[j * SIZE + i] = sample[1];
+                dy[j * SIZE + i] = sample[2];
+            }
+        }
+        return out;
+    }
+
+    @Benchmark
+    public float[] fastSimplex2DDerivativesGrid() {
+        fastSimplex.sampleGridWithDerivatives(out, dx, dy, X0, Y0, STEP, SIZE, SIZE);
+        return out;
+    }
+
+    @Benchmark
+    public float[] fastSimplex3DScalar() {
+        for (int k = 0; k < DEPTH; k++) {
+            for (int j = 0; j < SIZE; j++) {
+                for (int i = 0; i < SIZE; i++) {
+                    volume[(k * SIZE + j) * SIZE + i] = fastSimplex.sampleResult(X0 + i * STEP, Y0 + j * STEP, k * STEP);
+                }
+            }
+        }
+        return volume;
+    }
+
+    @Benchmark
+    public float[] fastSimplex3DVolume() {
+        fastSimplex.sampleVolume(volume, X0, Y0, 0.0, STEP, SIZE, SIZE, DEPTH);
+        return volume;
+    }
+
+    @Benchmark
+    public float[] worleyNoise2DGrid() {
+        worleyNoise.sampleGrid(out, dx, X0, Y0, STEP, SIZE, SIZE);
+        return out;
+    }
+
+    @Benchmark
+    public int[] randomField2DScalar() {
+        for (int j = 0; j < SIZE; j++) {
+            for (int i = 0; i < SIZE; i++) {
+                ints[j * SIZE + i] = randomField.getValue(i, j);
+            }
+        }
+        return ints;
+    }
+
+    @Benchmark
+    public int[] randomField2DGrid() {
+        randomField.getValues(ints, 0, 0, 0, SIZE, SIZE);
+        return ints;
+    }
+
+    private final PerlinNoise perlinNoise = new PerlinNoise(SEED);
+    private final NoiseSampler sampler = perlinNoise.createSampler();
+    private final FastSimplex fastSimplex = new FastSimplex(SEED);
+    private final WorleyNoise worleyNoise = new WorleyNoise(SEED);
+    private final RandomField randomField = new RandomField(5, 20.0, SEED);
+    private final float[] out = new float[SIZE * SIZE], dx = new float[SIZE * SIZE], dy = new float[SIZE * SIZE];
+    private final float[] volume = new float[SIZE * SIZE * DEPTH], sample = new float[3];
+    private final int[] ints = new int[SIZE * SIZE];
+    private final long[] mask = new long[SIZE * SIZE / 64];
+
+    private static final int SIZE = 256, DEPTH = 16;
+    private static final double X0 = 12.3, Y0 = 45.6, STEP = 0.03;
+    private static final float LEVEL = PerlinNoise.getLevelForPromillage(100);
+    private static final long SEED = 4711L;
+}
@@ -0,0 +1,200 @@
+package org.pepsoft.util.benchmarks;
+
+import com.kenperlin.ImprovedNoise;
+import org.openjdk.jmh.annotations.*;
+import org.pepsoft.util.FastPerlin;
+import org.pepsoft.util.FastSimplex;
+import org.pepsoft.util.PerlinNoise;
+import org.pepsoft.util.RandomField;
+import se.liu.itn.stegu.SimplexNoise;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of sampling single points from the noise generators, for points
+ * visited in scanline order (consecutive points along rows, as when rendering
+ * or exporting) and in random order (as when sampling scattered objects).
+ * Each invocation samples {@link #POINTS} points; the reported time is per
+ * point.
+ *
+ * @author pepijn
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SampleBenchmark {
+    @Param({"SCANLINE", "RANDOM"})
+    public Pattern pattern;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(SEED);
+        for (int i = 0; i < POINTS; i++) {
+            switch (pattern) {
+                case SCANLINE:
+                    xs[i] = (i % ROW_LENGTH) * STEP;
+                    ys[i] = (i / ROW_LENGTH) * STEP;
+                    zs[i] = 12.5;
+                    break;
+                case RANDOM:
+                    xs[i] = random.nextDouble() * 256;
+                    ys[i] = random.nextDouble() * 256;
+                    zs[i] = random.nextDouble() * 256;
+                    break;
+            }
+            intXs[i] = (int) (xs[i] / STEP);
+            intYs[i] = (int) (ys[i] / STEP);
+            intZs[i] = (int) (zs[i] / STEP);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public float fastPerlin1D() {
+        float total = 0.0f;
+        for (int i = 0; i < POINTS; i++) {
+            total += fastPerlin.sampleResult(xs[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public float fastPerlin2D() {
+        float total = 0.0f;
+        for (int i = 0; i < POINTS; i++) {
+            total += fastPerlin.sampleResult(xs[i], ys[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public float fastPerlin3D() {
+        float total = 0.0f;
+        for (int i = 0; i < POINTS; i++) {
+            total += fastPerlin.sampleResult(xs[i], ys[i], zs[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public float perlinNoise1D() {
+        float total = 0.0f;
+        for (int i = 0; i < POINTS; i++) {
+            total += perlinNoise.getPerlinNoise(xs[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public float perlinNoise2D() {
+        float total = 0.0f;
+        for (int i = 0; i < POINTS; i++) {
+            total += perlinNoise.getPerlinNoise(xs[i], ys[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public float perlinNoise3D() {
+        float total = 0.0f;
+        for (int i = 0; i < POINTS; i++) {
+            total += perlinNoise.getPerlinNoise(xs[i], ys[i], zs[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double improvedNoise3D() {
+        double total = 0.0;
+        for (int i = 0; i < POINTS; i++) {
+            total += improvedNoise.noise(xs[i], ys[i], zs[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double simplexNoise2D() {
+        double total = 0.0;
+        for (int i = 0; i < POINTS; i++) {
+            total += simplexNoise.noise(xs[i], ys[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public double simplexNoise3D() {
+        double total = 0.0;
+        for (int i = 0; i < POINTS; i++) {
+            total += simplexNoise.noise(xs[i], ys[i], zs[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public float fastSimplex2D() {
+        float total = 0.0f;
+        for (int i = 0; i < POINTS; i++) {
+            total += fastSimplex.sampleResult(xs[i], ys[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public float fastSimplex3D() {
+        float total = 0.0f;
+        for (int i = 0; i < POINTS; i++) {
+            total += fastSimplex.sampleResult(xs[i], ys[i], zs[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public int randomField2D() {
+        int total = 0;
+        for (int i = 0; i < POINTS; i++) {
+            total += randomField.getValue(intXs[i], intYs[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public int randomField3D() {
+        int total = 0;
+        for (int i = 0; i < POINTS; i++) {
+            total += randomField.getValue(intXs[i], intYs[i], intZs[i]);
+        }
+        return total;
+    }
+
+    private final FastPerlin fastPerlin = new FastPerlin(SEED);
+    private final PerlinNoise perlinNoise = new PerlinNoise(SEED);
+    private final ImprovedNoise improvedNoise = new ImprovedNoise(SEED);
+    private final SimplexNoise simplexNoise = new SimplexNoise(SEED);
+    private final FastSimplex fastSimplex = new FastSimplex(SEED);
+    private final RandomField randomField = new RandomField(5, 20.0, SEED);
+    private final double[] xs = new double[POINTS], ys = new double[POINTS], zs = new double[POINTS];
+    private final int[] intXs = new int[POINTS], intYs = new int[POINTS], intZs = new int[POINTS];
+
+    static final int POINTS = 65536;
+    private static final int ROW_LENGTH = 256;
+    private static final double STEP = 0.03;
+    private static final long SEED = 4711L;
+
+    public enum Pattern {SCANLINE, RANDOM}
+}
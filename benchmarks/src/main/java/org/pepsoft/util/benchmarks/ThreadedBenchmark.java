@@ -0,0 +1,75 @@
+package org.pepsoft.util.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.pepsoft.util.NoiseSampler;
+import org.pepsoft.util.PerlinNoise;
+import org.pepsoft.util.ProgressReceiver;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of sampling noise from multiple threads at once: one shared
+ * generator sampled concurrently by as many threads as there are processors,
+ * and one large grid divided over the common fork/join pool. Compare with the
+ * single threaded results of {@link SampleBenchmark} and
+ * {@link GridBenchmark} to see how well sampling scales.
+ *
+ * @author pepijn
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThreadedBenchmark {
+    @Benchmark
+    @Threads(Threads.MAX)
+    @OperationsPerInvocation(1024)
+    public float sharedPerlinNoise3D(Shared shared) {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        float total = 0.0f;
+        for (int i = 0; i < 1024; i++) {
+            total += shared.perlinNoise.getPerlinNoise(random.nextDouble() * 256, random.nextDouble() * 256, random.nextDouble() * 256);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public float[] perThreadSamplerGrid(PerThread perThread) {
+        perThread.sampler.getPerlinNoiseGrid(perThread.out, 12.3, 45.6, 0.03, 256, 256);
+        return perThread.out;
+    }
+
+    @Benchmark
+    public float[] parallelGrid(Shared shared) throws ProgressReceiver.OperationCancelled {
+        shared.perlinNoise.getPerlinNoiseGridParallel(shared.largeGrid, 12.3, 45.6, 0.03, LARGE_SIZE, LARGE_SIZE, null, null);
+        return shared.largeGrid;
+    }
+
+    @Benchmark
+    public float[] sequentialGrid(Shared shared) {
+        shared.perlinNoise.getPerlinNoiseGrid(shared.largeGrid, 12.3, 45.6, 0.03, LARGE_SIZE, LARGE_SIZE);
+        return shared.largeGrid;
+    }
+
+    private static final int LARGE_SIZE = 2048;
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+        final PerlinNoise perlinNoise = new PerlinNoise(4711L);
+        final float[] largeGrid = new float[LARGE_SIZE * LARGE_SIZE];
+    }
+
+    @State(Scope.Thread)
+    public static class PerThread {
+        @Setup
+        public void setup(Shared shared) {
+            sampler = shared.perlinNoise.createSampler();
+        }
+
+        NoiseSampler sampler;
+        final float[] out = new float[256 * 256];
+    }
+}
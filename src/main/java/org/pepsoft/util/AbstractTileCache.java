@@ -0,0 +1,173 @@
+package org.pepsoft.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * The shared implementation of {@link NoiseTileCache} and
+ * {@link NoisePyramid}: a cache of tiles with a memory budget, from which the
+ * tiles are evicted in least recently used order when the total size exceeds
+ * it, and which keeps hit, miss and eviction statistics.
+ *
+ * <p>This class is thread safe.
+ *
+ * @param <V> The type of the tiles.
+ */
+abstract class AbstractTileCache<V> {
+    /**
+     * Create a new tile cache.
+     *
+     * @param maxBytes The memory budget of the cache in bytes.
+     */
+    AbstractTileCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+        cache = CacheBuilder.newBuilder()
+                .concurrencyLevel(1) // Makes the eviction order strictly LRU
+                .maximumWeight(maxBytes)
+                .weigher((TileKey key, V tile) -> getByteSize(tile))
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Remove all tiles from the cache. Does not reset the hit and miss
+     * counters.
+     */
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Get the number of tiles currently in the cache.
+     *
+     * @return The number of tiles currently in the cache.
+     */
+    public long getTileCount() {
+        return cache.size();
+    }
+
+    /**
+     * Get the number of times a requested tile was found in the cache.
+     *
+     * @return The number of cache hits.
+     */
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    /**
+     * Get the number of times a requested tile was not found in the cache and
+     * had to be created.
+     *
+     * @return The number of cache misses.
+     */
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    /**
+     * Get the number of tiles which have been evicted from the cache because
+     * of the memory budget.
+     *
+     * @return The number of evicted tiles.
+     */
+    public long getEvictionCount() {
+        return cache.stats().evictionCount();
+    }
+
+    @Override
+    public String toString() {
+        final CacheStats stats = cache.stats();
+        return getClass().getSimpleName() + "{tiles=" + cache.size() + ", hits=" + stats.hitCount() + ", misses=" + stats.missCount() + ", evictions=" + stats.evictionCount() + '}';
+    }
+
+    /**
+     * Get a tile from the cache, counting a hit or a miss.
+     *
+     * @return The tile, or {@code null} if it is not in the cache.
+     */
+    final V getIfPresent(TileKey key) {
+        return cache.getIfPresent(key);
+    }
+
+    final void put(TileKey key, V tile) {
+        cache.put(key, tile);
+    }
+
+    /**
+     * Get the approximate memory used by a tile, including overhead.
+     */
+    abstract int getByteSize(V tile);
+
+    private final long maxBytes;
+    private final Cache<TileKey, V> cache;
+
+    /**
+     * The key of a cached tile.
+     */
+    static final class TileKey {
+        /**
+         * Create a tile key.
+         *
+         * @param generatorType The type of generator. Together with the seed,
+         *                      scale and variant this must uniquely identify
+         *                      the values of the tile.
+         * @param seed The seed of the generator.
+         * @param scale The scale of the generator.
+         * @param variant Any other parameter which influences the values of
+         *                the tile, or zero if there is none.
+         * @param tileX The X coordinate of the tile.
+         * @param tileY The Y coordinate of the tile.
+         * @param tileSize The size of the tile in points along each axis.
+         */
+        TileKey(Class<?> generatorType, long seed, double scale, int variant, int tileX, int tileY, int tileSize) {
+            this.generatorType = generatorType;
+            this.seed = seed;
+            this.scale = scale;
+            this.variant = variant;
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.tileSize = tileSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (! (o instanceof TileKey)) {
+                return false;
+            }
+            final TileKey tileKey = (TileKey) o;
+            return (seed == tileKey.seed)
+                    && (Double.compare(scale, tileKey.scale) == 0)
+                    && (variant == tileKey.variant)
+                    && (tileX == tileKey.tileX)
+                    && (tileY == tileKey.tileY)
+                    && (tileSize == tileKey.tileSize)
+                    && (generatorType == tileKey.generatorType);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = generatorType.hashCode();
+            hash = 31 * hash + Long.hashCode(seed);
+            hash = 31 * hash + Double.hashCode(scale);
+            hash = 31 * hash + variant;
+            hash = 31 * hash + tileX;
+            hash = 31 * hash + tileY;
+            hash = 31 * hash + tileSize;
+            return hash;
+        }
+
+        private final Class<?> generatorType;
+        private final long seed;
+        private final double scale;
+        private final int variant, tileX, tileY, tileSize;
+    }
+}
@@ -0,0 +1,299 @@
+package org.pepsoft.util;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * A counter-based pseudo random number generator, in the style of
+ * {@code SplittableRandom}'s SplitMix64 algorithm. Rather than advancing an
+ * internal state, it hashes the seed together with a counter or with a set of
+ * coordinates straight to a pseudo random value. It is therefore immutable and
+ * thread safe, needs no locking or per-thread instances, and produces the same
+ * value for the same seed and counter or coordinates regardless of the order
+ * in which, or the thread on which, values are requested. This makes it
+ * suitable for reproducible per-block or per-coordinate randomness in
+ * parallel code.
+ *
+ * <p>The static {@code hash} methods perform the same hashing without an
+ * instance.
+ *
+ * <p>This class is <em>not</em> suitable for cryptographic purposes.
+ *
+ * @author pepijn
+ */
+public final class CounterRandom implements Serializable {
+    public CounterRandom(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Derive an independent generator from this one, for instance one per
+     * chunk or per export pass. The same key always produces the same
+     * generator.
+     *
+     * @param key The key of the derived generator.
+     * @return The derived generator.
+     */
+    public CounterRandom split(long key) {
+        return new CounterRandom(mix(seed ^ mix(key + GOLDEN_GAMMA)));
+    }
+
+    /**
+     * Get the pseudo random {@code long} for a counter value.
+     *
+     * @param counter The counter value.
+     * @return The pseudo random value, uniformly distributed over all
+     * {@code long} values.
+     */
+    public long getLong(long counter) {
+        return hash(seed, counter);
+    }
+
+    /**
+     * Get a pseudo random {@code int} between 0 (inclusive) and
+     * {@code bound} (exclusive) for a counter value.
+     *
+     * @param counter The counter value.
+     * @param bound The upper bound (exclusive). Must be positive.
+     * @return The pseudo random value.
+     */
+    public int getInt(long counter, int bound) {
+        return bounded(hash(seed, counter), bound);
+    }
+
+    /**
+     * Get a pseudo random {@code double} between 0.0 (inclusive) and 1.0
+     * (exclusive) for a counter value.
+     *
+     * @param counter The counter value.
+     * @return The pseudo random value.
+     */
+    public double getDouble(long counter) {
+        return toDouble(hash(seed, counter));
+    }
+
+    /**
+     * Get a pseudo random {@code float} between 0.0 (inclusive) and 1.0
+     * (exclusive) for a counter value.
+     *
+     * @param counter The counter value.
+     * @return The pseudo random value.
+     */
+    public float getFloat(long counter) {
+        return toFloat(hash(seed, counter));
+    }
+
+    /**
+     * Get the pseudo random {@code long} for a set of coordinates.
+     *
+     * @param x The X coordinate.
+     * @param y The Y coordinate.
+     * @param z The Z coordinate.
+     * @return The pseudo random value, uniformly distributed over all
+     * {@code long} values.
+     */
+    public long getLong(int x, int y, int z) {
+        return hash(seed, x, y, z);
+    }
+
+    /**
+     * Get a pseudo random {@code int} between 0 (inclusive) and
+     * {@code bound} (exclusive) for a set of coordinates.
+     *
+     * @param x The X coordinate.
+     * @param y The Y coordinate.
+     * @param z The Z coordinate.
+     * @param bound The upper bound (exclusive). Must be positive.
+     * @return The pseudo random value.
+     */
+    public int getInt(int x, int y, int z, int bound) {
+        return bounded(hash(seed, x, y, z), bound);
+    }
+
+    /**
+     * Get a pseudo random {@code double} between 0.0 (inclusive) and 1.0
+     * (exclusive) for a set of coordinates.
+     *
+     * @param x The X coordinate.
+     * @param y The Y coordinate.
+     * @param z The Z coordinate.
+     * @return The pseudo random value.
+     */
+    public double getDouble(int x, int y, int z) {
+        return toDouble(hash(seed, x, y, z));
+    }
+
+    /**
+     * Get a pseudo random {@code float} between 0.0 (inclusive) and 1.0
+     * (exclusive) for a set of coordinates.
+     *
+     * @param x The X coordinate.
+     * @param y The Y coordinate.
+     * @param z The Z coordinate.
+     * @return The pseudo random value.
+     */
+    public float getFloat(int x, int y, int z) {
+        return toFloat(hash(seed, x, y, z));
+    }
+
+    /**
+     * Fill an array with the pseudo random {@code long}s for consecutive
+     * counter values.
+     *
+     * @param out The array to fill. Element {@code i} will contain the value
+     *            for counter {@code firstCounter + i}.
+     * @param firstCounter The counter value for the first element.
+     */
+    public void fill(long[] out, long firstCounter) {
+        long z = seed + firstCounter * GOLDEN_GAMMA;
+        for (int i = 0; i < out.length; i++, z += GOLDEN_GAMMA) {
+            out[i] = mix(z);
+        }
+    }
+
+    /**
+     * Fill an array with pseudo random {@code int}s between 0 (inclusive) and
+     * {@code bound} (exclusive) for consecutive counter values.
+     *
+     * @param out The array to fill. Element {@code i} will contain the value
+     *            for counter {@code firstCounter + i}.
+     * @param firstCounter The counter value for the first element.
+     * @param bound The upper bound (exclusive). Must be positive.
+     */
+    public void fill(int[] out, long firstCounter, int bound) {
+        long z = seed + firstCounter * GOLDEN_GAMMA;
+        for (int i = 0; i < out.length; i++, z += GOLDEN_GAMMA) {
+            out[i] = bounded(mix(z), bound);
+        }
+    }
+
+    /**
+     * Fill an array with pseudo random {@code double}s between 0.0
+     * (inclusive) and 1.0 (exclusive) for consecutive counter values.
+     *
+     * @param out The array to fill. Element {@code i} will contain the value
+     *            for counter {@code firstCounter + i}.
+     * @param firstCounter The counter value for the first element.
+     */
+    public void fill(double[] out, long firstCounter) {
+        long z = seed + firstCounter * GOLDEN_GAMMA;
+        for (int i = 0; i < out.length; i++, z += GOLDEN_GAMMA) {
+            out[i] = toDouble(mix(z));
+        }
+    }
+
+    /**
+     * Fill an array with pseudo random {@code float}s between 0.0
+     * (inclusive) and 1.0 (exclusive) for consecutive counter values.
+     *
+     * @param out The array to fill. Element {@code i} will contain the value
+     *            for counter {@code firstCounter + i}.
+     * @param firstCounter The counter value for the first element.
+     */
+    public void fill(float[] out, long firstCounter) {
+        long z = seed + firstCounter * GOLDEN_GAMMA;
+        for (int i = 0; i < out.length; i++, z += GOLDEN_GAMMA) {
+            out[i] = toFloat(mix(z));
+        }
+    }
+
+    /**
+     * Hash a seed and a counter value to a pseudo random {@code long}. For
+     * positive counter values this is the same as the value returned by the
+     * {@code counter}th invocation of {@link java.util.SplittableRandom#nextLong()}
+     * on a {@code SplittableRandom} created with the same seed.
+     *
+     * @param seed The seed.
+     * @param counter The counter value.
+     * @return The pseudo random value.
+     */
+    public static long hash(long seed, long counter) {
+        return mix(seed + counter * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Hash a seed and a set of two dimensional coordinates to a pseudo random
+     * {@code long}. The result is the same as for
+     * {@link #hash(long, int, int, int)} with Z coordinate zero.
+     *
+     * @param seed The seed.
+     * @param x The X coordinate.
+     * @param y The Y coordinate.
+     * @return The pseudo random value.
+     */
+    public static long hash(long seed, int x, int y) {
+        return hash(seed, x, y, 0);
+    }
+
+    /**
+     * Hash a seed and a set of three dimensional coordinates to a pseudo
+     * random {@code long}.
+     *
+     * @param seed The seed.
+     * @param x The X coordinate.
+     * @param y The Y coordinate.
+     * @param z The Z coordinate.
+     * @return The pseudo random value.
+     */
+    public static long hash(long seed, int x, int y, int z) {
+        // The coordinates are hashed one after another, so that no linear
+        // combination of different coordinates can collide
+        return mix(mix(mix(seed + x * GOLDEN_GAMMA) + y * GOLDEN_GAMMA) + z * GOLDEN_GAMMA);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return (o instanceof CounterRandom) && (((CounterRandom) o).seed == seed);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(seed);
+    }
+
+    @Override
+    public String toString() {
+        return "CounterRandom{seed=" + seed + '}';
+    }
+
+    /**
+     * The SplitMix64 finaliser (variant 13 of David Stafford's mix functions).
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Map a pseudo random {@code long} to an {@code int} between 0 (inclusive)
+     * and {@code bound} (exclusive) using the high 32 bits and a multiply and
+     * shift. The bias is at most {@code bound / 2^32}, which is negligible for
+     * the bounds this is intended for.
+     */
+    private static int bounded(long value, int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound " + bound);
+        }
+        return (int) (((value >>> 32) * bound) >>> 32);
+    }
+
+    private static double toDouble(long value) {
+        return (value >>> 11) * 0x1.0p-53;
+    }
+
+    private static float toFloat(long value) {
+        return (value >>> 40) * 0x1.0p-24f;
+    }
+
+    private final long seed;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
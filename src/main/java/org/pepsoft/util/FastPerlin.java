@@ -1,7 +1,13 @@
 package org.pepsoft.util;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
 import java.io.Serial;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Fast implementation of Perlin noise.
@@ -10,22 +16,7 @@ import java.io.Serializable;
  */
 public class FastPerlin implements Serializable {
     public FastPerlin(long seed) {
-        final UnsafeRandom r = new UnsafeRandom(seed);
-        final byte[] permutation = new byte[256];
-        for (int i = 0; i < 256; ++i) {
-            permutation[i] = (byte) i;
-        }
-
-        for (int i = 0; i < 256; ++i) {
-            final int j = r.nextInt(256 - i);
-            final byte b = permutation[255 - i];
-            permutation[255 - i] = permutation[j];
-            permutation[j] = b;
-        }
-
-        for (int i = 0; i < 256; i++) {
-            permPair[i] = (short) ((permutation[i] & 0xFF) | ((permutation[(i + 1) & 0xFF] & 0xFF) << 8));
-        }
+        permPair = getPermutationPairs(seed);
     }
 
     public float sampleResult(double X) {
@@ -60,14 +51,32 @@ public class FastPerlin implements Serializable {
     }
 
     public float sampleResult(double X, double Y, double Z) {
-        final int bx = (int) Math.floor(X);
-        final int by = (int) Math.floor(Y);
-        final int bz = (int) Math.floor(Z);
-
         final float lx = (float) (X - Math.floor(X));
         final float ly = (float) (Y - Math.floor(Y));
         final float lz = (float) (Z - Math.floor(Z));
 
+        return sampleLattice((int) Math.floor(X), (int) Math.floor(Y), (int) Math.floor(Z), lx, ly, lz, fade(lx), fade(ly), fade(lz));
+    }
+
+    /**
+     * Sample a point for which the lattice cell, the position within the cell
+     * and the fade weights have already been calculated. This allows callers
+     * which sample the same point on multiple generators to calculate those
+     * only once.
+     *
+     * @param bx The X coordinate of the lattice cell.
+     * @param by The Y coordinate of the lattice cell.
+     * @param bz The Z coordinate of the lattice cell.
+     * @param lx The X coordinate within the lattice cell.
+     * @param ly The Y coordinate within the lattice cell.
+     * @param lz The Z coordinate within the lattice cell.
+     * @param px The fade weight for {@code lx}.
+     * @param py The fade weight for {@code ly}.
+     * @param pz The fade weight for {@code lz}.
+     * @return The same result as {@link #sampleResult(double, double, double)}
+     * for the point.
+     */
+    float sampleLattice(int bx, int by, int bz, float lx, float ly, float lz, float px, float py, float pz) {
         final int x = getPair(bx);
         final int x0y = getPair(x + by);
         final int x1y = getPair((x >> 8) + by);
@@ -76,10 +85,554 @@ public class FastPerlin implements Serializable {
         final int x1y0z = getPair(x1y + bz);
         final int x1y1z = getPair((x1y >> 8) + bz);
 
+        return lerp(px,
+                lerp(py,
+                        lerp(pz,
+                                grad(x0y0z, lx, ly, lz),
+                                grad(x0y0z >> 8, lx, ly, lz - 1.0f)),
+                        lerp(pz,
+                                grad(x0y1z, lx, ly - 1.0f, lz),
+                                grad(x0y1z >> 8, lx, ly - 1.0f, lz - 1.0f))),
+                lerp(py,
+                        lerp(pz,
+                                grad(x1y0z, lx - 1.0f, ly, lz),
+                                grad(x1y0z >> 8, lx - 1.0f, ly, lz - 1.0f)),
+                        lerp(pz,
+                                grad(x1y1z, lx - 1.0f, ly - 1.0f, lz),
+                                grad(x1y1z >> 8, lx - 1.0f, ly - 1.0f, lz - 1.0f))));
+    }
+
+    /**
+     * Sample two dimensional noise together with its partial derivatives,
+     * which are calculated analytically from the fade polynomials. This is
+     * considerably cheaper than approximating the derivatives with finite
+     * differences, which requires sampling the noise multiple times.
+     *
+     * @param X The X coordinate.
+     * @param Y The Y coordinate.
+     * @param out The array in which to store the results. The value, which is
+     *            identical to the result of
+     *            {@link #sampleResult(double, double)}, is stored at index 0,
+     *            the partial derivative with respect to X at index 1 and the
+     *            partial derivative with respect to Y at index 2.
+     */
+    public void sampleWithDerivatives(double X, double Y, float[] out) {
+        final int by = (int) Math.floor(Y);
+
+        final float lx = (float) (X - Math.floor(X)), lx1 = lx - 1.0f;
+        final float ly = (float) (Y - Math.floor(Y)), ly1 = ly - 1.0f;
+
+        final int x = getPair((int) Math.floor(X));
+        final int x0y = getPair(x + by);
+        final int x1y = getPair((x >> 8) + by);
+        final int g00 = gradIndex(getPair(x0y)), g01 = gradIndex(getPair(x0y >> 8));
+        final int g10 = gradIndex(getPair(x1y)), g11 = gradIndex(getPair(x1y >> 8));
+
+        final float px = fade(lx), py = fade(ly);
+        final float n00 = Math.fma(lx, LUT2[g00], ly * LUT2[g00 + 1]), n01 = Math.fma(lx, LUT2[g01], ly1 * LUT2[g01 + 1]);
+        final float n10 = Math.fma(lx1, LUT2[g10], ly * LUT2[g10 + 1]), n11 = Math.fma(lx1, LUT2[g11], ly1 * LUT2[g11 + 1]);
+        final float n0 = lerp(py, n00, n01), n1 = lerp(py, n10, n11);
+
+        out[0] = lerp(px, n0, n1);
+        // The interpolated gradients, plus the change of the interpolation
+        // weights
+        out[1] = Math.fma(fadeDerivative(lx), n1 - n0,
+                lerp(px, lerp(py, LUT2[g00], LUT2[g01]), lerp(py, LUT2[g10], LUT2[g11])));
+        out[2] = Math.fma(fadeDerivative(ly), lerp(px, n01, n11) - lerp(px, n00, n10),
+                lerp(px, lerp(py, LUT2[g00 + 1], LUT2[g01 + 1]), lerp(py, LUT2[g10 + 1], LUT2[g11 + 1])));
+    }
+
+    /**
+     * Sample three dimensional noise together with its partial derivatives,
+     * which are calculated analytically from the fade polynomials.
+     *
+     * @param X The X coordinate.
+     * @param Y The Y coordinate.
+     * @param Z The Z coordinate.
+     * @param out The array in which to store the results. The value, which is
+     *            identical to the result of
+     *            {@link #sampleResult(double, double, double)}, is stored at
+     *            index 0, and the partial derivatives with respect to X, Y and
+     *            Z at indices 1, 2 and 3.
+     */
+    public void sampleWithDerivatives(double X, double Y, double Z, float[] out) {
+        final int bz = (int) Math.floor(Z), by = (int) Math.floor(Y);
+        final float lx = (float) (X - Math.floor(X)), lx1 = lx - 1.0f;
+        final float ly = (float) (Y - Math.floor(Y)), ly1 = ly - 1.0f;
+        final float lz = (float) (Z - Math.floor(Z)), lz1 = lz - 1.0f;
+
+        final int x = getPair((int) Math.floor(X));
+        final int x0y = getPair(x + by);
+        final int x1y = getPair((x >> 8) + by);
+        final int x0y0z = getPair(x0y + bz);
+        final int x0y1z = getPair((x0y >> 8) + bz);
+        final int x1y0z = getPair(x1y + bz);
+        final int x1y1z = getPair((x1y >> 8) + bz);
+        final int g000 = gradIndex(x0y0z), g001 = gradIndex(x0y0z >> 8), g010 = gradIndex(x0y1z), g011 = gradIndex(x0y1z >> 8);
+        final int g100 = gradIndex(x1y0z), g101 = gradIndex(x1y0z >> 8), g110 = gradIndex(x1y1z), g111 = gradIndex(x1y1z >> 8);
+
+        final float px = fade(lx), py = fade(ly), pz = fade(lz);
+        final float n000 = grad(x0y0z, lx, ly, lz), n001 = grad(x0y0z >> 8, lx, ly, lz1);
+        final float n010 = grad(x0y1z, lx, ly1, lz), n011 = grad(x0y1z >> 8, lx, ly1, lz1);
+        final float n100 = grad(x1y0z, lx1, ly, lz), n101 = grad(x1y0z >> 8, lx1, ly, lz1);
+        final float n110 = grad(x1y1z, lx1, ly1, lz), n111 = grad(x1y1z >> 8, lx1, ly1, lz1);
+        final float n00 = lerp(pz, n000, n001), n01 = lerp(pz, n010, n011), n10 = lerp(pz, n100, n101), n11 = lerp(pz, n110, n111);
+        final float n0 = lerp(py, n00, n01), n1 = lerp(py, n10, n11);
+
+        out[0] = lerp(px, n0, n1);
+        out[1] = Math.fma(fadeDerivative(lx), n1 - n0, interpolate(g000, g001, g010, g011, g100, g101, g110, g111, 0, px, py, pz));
+        out[2] = Math.fma(fadeDerivative(ly), lerp(px, n01, n11) - lerp(px, n00, n10), interpolate(g000, g001, g010, g011, g100, g101, g110, g111, 1, px, py, pz));
+        out[3] = Math.fma(fadeDerivative(lz),
+                lerp(px, lerp(py, n001, n011), lerp(py, n101, n111)) - lerp(px, lerp(py, n000, n010), lerp(py, n100, n110)),
+                interpolate(g000, g001, g010, g011, g100, g101, g110, g111, 2, px, py, pz));
+    }
+
+    /**
+     * Sample a two dimensional grid of points in one go, which is considerably
+     * faster than sampling the points individually. The point for grid
+     * coordinates {@code (i, j)} is {@code (x0 + i * step, y0 + j * step)} and
+     * the result for it is stored in {@code out[j * width + i]}. The results
+     * are identical to invoking {@link #sampleResult(double, double)} for each
+     * point.
+     *
+     * <p>Each scanline is processed as a series of runs of consecutive points
+     * which fall in the same lattice cell. The lattice hashes and gradients
+     * are looked up once per run, so that the inner loop over the points of a
+     * run consists of nothing but straight line floating point arithmetic on
+     * arrays, which the JIT compiler can vectorise.
+     *
+     * @param out The array in which to store the results. Must have room for
+     *            at least {@code width * height} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows.
+     * @param width The number of columns to sample.
+     * @param height The number of rows to sample.
+     */
+    public void sampleGrid(float[] out, double x0, double y0, double step, int width, int height) {
+        final Columns columns = new Columns();
+        initColumns(columns, x0, step, 0, width);
+        sampleRows(out, 0, width, columns, y0, step, 0, height);
+    }
+
+    /**
+     * Sample a two dimensional grid of points in parallel. The grid is
+     * divided into tiles which are sampled as separate tasks on a fork/join
+     * pool. The results are identical to those of
+     * {@link #sampleGrid(float[], double, double, double, int, int)}.
+     *
+     * @param out The array in which to store the results. Must have room for
+     *            at least {@code width * height} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows.
+     * @param width The number of columns to sample.
+     * @param height The number of rows to sample.
+     * @param pool The pool on which to sample the tiles, or {@code null} to
+     *             use the common pool.
+     * @param progressReceiver The progress receiver to which to report
+     *                         progress and which to check for cancellation.
+     *                         May be {@code null}.
+     * @throws ProgressReceiver.OperationCancelled If the progress receiver
+     *     indicated that the operation should be cancelled.
+     */
+    public void sampleGridParallel(float[] out, double x0, double y0, double step, int width, int height, ForkJoinPool pool, ProgressReceiver progressReceiver) throws ProgressReceiver.OperationCancelled {
+        ParallelGridSampler.sampleGrid(out, width, height, (tileOut, offset, stride, col0, row0, tileWidth, tileHeight) -> {
+            final Columns columns = new Columns();
+            initColumns(columns, x0, step, col0, tileWidth);
+            sampleRows(tileOut, offset, stride, columns, y0, step, row0, tileHeight);
+        }, pool, progressReceiver);
+    }
+
+    /**
+     * Sample a two dimensional grid of points together with the partial
+     * derivatives of the noise in one go. The layout of the grid is the same as
+     * for {@link #sampleGrid(float[], double, double, double, int, int)} and
+     * the results are identical to invoking
+     * {@link #sampleWithDerivatives(double, double, float[])} for each point.
+     *
+     * @param values The array in which to store the values. Must have room for
+     *               at least {@code width * height} values.
+     * @param dx The array in which to store the partial derivatives with
+     *           respect to X. Must have room for at least
+     *           {@code width * height} values.
+     * @param dy The array in which to store the partial derivatives with
+     *           respect to Y. Must have room for at least
+     *           {@code width * height} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows.
+     * @param width The number of columns to sample.
+     * @param height The number of rows to sample.
+     */
+    public void sampleGridWithDerivatives(float[] values, float[] dx, float[] dy, double x0, double y0, double step, int width, int height) {
+        final Columns columns = new Columns();
+        initColumns(columns, x0, step, 0, width);
+        final int[] xPairs = columns.pairs, runEnds = columns.runEnds;
+        final float[] xFractions = columns.fractions, xFades = columns.fades;
+        final int runCount = columns.runCount;
+        for (int j = 0; j < height; j++) {
+            final double Y = y0 + j * step;
+            final int by = (int) Math.floor(Y);
+            final float ly = (float) (Y - Math.floor(Y));
+            final float py = fade(ly), dpy = fadeDerivative(ly);
+            final int rowOffset = j * width;
+            for (int run = 0, start = 0; run < runCount; run++) {
+                final int end = runEnds[run];
+                final int x = xPairs[start];
+                final int x0y = getPair(x + by);
+                final int x1y = getPair((x >> 8) + by);
+                final int g00 = gradIndex(getPair(x0y)), g01 = gradIndex(getPair(x0y >> 8));
+                final int g10 = gradIndex(getPair(x1y)), g11 = gradIndex(getPair(x1y >> 8));
+                final float c00 = ly * LUT2[g00 + 1], c01 = (ly - 1.0f) * LUT2[g01 + 1];
+                final float c10 = ly * LUT2[g10 + 1], c11 = (ly - 1.0f) * LUT2[g11 + 1];
+                final float gx00 = LUT2[g00], gx01 = LUT2[g01], gx10 = LUT2[g10], gx11 = LUT2[g11];
+                // The gradients interpolated along Y are constant for the run
+                final float gx0 = lerp(py, gx00, gx01), gx1 = lerp(py, gx10, gx11);
+                final float gy0 = lerp(py, LUT2[g00 + 1], LUT2[g01 + 1]), gy1 = lerp(py, LUT2[g10 + 1], LUT2[g11 + 1]);
+                for (int i = start; i < end; i++) {
+                    final float lx = xFractions[i], lx1 = lx - 1.0f, px = xFades[i];
+                    final float n00 = Math.fma(lx, gx00, c00), n01 = Math.fma(lx, gx01, c01);
+                    final float n10 = Math.fma(lx1, gx10, c10), n11 = Math.fma(lx1, gx11, c11);
+                    final float n0 = lerp(py, n00, n01), n1 = lerp(py, n10, n11);
+                    values[rowOffset + i] = lerp(px, n0, n1);
+                    dx[rowOffset + i] = Math.fma(fadeDerivative(lx), n1 - n0, lerp(px, gx0, gx1));
+                    dy[rowOffset + i] = Math.fma(dpy, lerp(px, n01, n11) - lerp(px, n00, n10), lerp(px, gy0, gy1));
+                }
+                start = end;
+            }
+        }
+    }
+
+    /**
+     * Sample a three dimensional volume of points in one go, which is
+     * considerably faster than sampling the points individually. The point for
+     * volume coordinates {@code (i, j, k)} is
+     * {@code (x0 + i * step, y0 + j * step, z0 + k * step)} and the result for
+     * it is stored in {@code out[(k * height + j) * width + i]}. The results are
+     * identical to invoking {@link #sampleResult(double, double, double)} for
+     * each point.
+     *
+     * <p>Scanlines are processed in the same way as by
+     * {@link #sampleGrid(float[], double, double, double, int, int)}.
+     *
+     * @param out The array in which to store the results. Must have room for
+     *            at least {@code width * height * depth} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param z0 The Z coordinate of the first layer.
+     * @param step The distance between consecutive columns, rows and layers.
+     * @param width The number of columns to sample.
+     * @param height The number of rows to sample.
+     * @param depth The number of layers to sample.
+     */
+    public void sampleVolume(float[] out, double x0, double y0, double z0, double step, int width, int height, int depth) {
+        final Columns columns = new Columns();
+        initColumns(columns, x0, step, 0, width);
+        sampleLayers(out, columns, y0, z0, step, height, depth);
+    }
+
+    /**
+     * Determine for a two dimensional grid of points which ones have a noise
+     * value at or above a threshold, without storing the noise values. The
+     * layout of the grid is the same as for
+     * {@link #sampleGrid(float[], double, double, double, int, int)} and the
+     * result for grid coordinates {@code (i, j)} is bit {@code j * width + i}
+     * of the mask, in the layout of {@link java.util.BitSet#valueOf(long[])}.
+     * The results are identical to comparing the result of
+     * {@link #sampleResult(double, double)} for each point to the threshold.
+     *
+     * <p>Within a lattice cell the noise along a row lies between the values
+     * interpolated along Y at the first and last column of the row, so for
+     * each run of columns in the same cell those bounds are calculated first,
+     * and if they lie clearly on one side of the threshold the entire run is
+     * decided at once without sampling the individual points.
+     *
+     * @param mask The array in which to store the bits, or {@code null} to
+     *             only count the points. Must have room for at least
+     *             {@code width * height} bits. The bits for the grid are
+     *             overwritten; any further bits in the last word are cleared.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows.
+     * @param width The number of columns to sample.
+     * @param height The number of rows to sample.
+     * @param threshold The threshold.
+     * @return The number of points with a noise value at or above the
+     * threshold.
+     */
+    public int sampleThreshold(long[] mask, double x0, double y0, double step, int width, int height, float threshold) {
+        if (mask != null) {
+            final int words = (width * height + 63) >>> 6;
+            if (mask.length < words) {
+                throw new IllegalArgumentException("mask.length " + mask.length + " < " + words);
+            }
+            Arrays.fill(mask, 0, words, 0L);
+        }
+        final Columns columns = new Columns();
+        initColumns(columns, x0, step, 0, width);
+        final int[] xPairs = columns.pairs, runEnds = columns.runEnds;
+        final float[] xFractions = columns.fractions, xFades = columns.fades;
+        final int runCount = columns.runCount;
+        final float above = threshold + THRESHOLD_MARGIN, below = threshold - THRESHOLD_MARGIN;
+        int count = 0;
+        for (int j = 0; j < height; j++) {
+            final double Y = y0 + j * step;
+            final int by = (int) Math.floor(Y);
+            final float ly = (float) (Y - Math.floor(Y));
+            final float py = fade(ly);
+            final int rowOffset = j * width;
+            for (int run = 0, start = 0; run < runCount; run++) {
+                final int end = runEnds[run];
+                final int x = xPairs[start];
+                final int x0y = getPair(x + by);
+                final int x1y = getPair((x >> 8) + by);
+                final int g00 = gradIndex(getPair(x0y)), g01 = gradIndex(getPair(x0y >> 8));
+                final int g10 = gradIndex(getPair(x1y)), g11 = gradIndex(getPair(x1y >> 8));
+                final float c00 = ly * LUT2[g00 + 1], c01 = (ly - 1.0f) * LUT2[g01 + 1];
+                final float c10 = ly * LUT2[g10 + 1], c11 = (ly - 1.0f) * LUT2[g11 + 1];
+                final float gx00 = LUT2[g00], gx01 = LUT2[g01], gx10 = LUT2[g10], gx11 = LUT2[g11];
+                // Along the run the values interpolated along Y are linear in
+                // lx, and the noise is a weighted average of them, so it is
+                // bounded by their values at the ends of the run. The margin
+                // covers rounding differences with the per point calculation
+                final float first = xFractions[start], last = xFractions[end - 1];
+                final float n0First = lerp(py, Math.fma(first, gx00, c00), Math.fma(first, gx01, c01));
+                final float n1First = lerp(py, Math.fma(first - 1.0f, gx10, c10), Math.fma(first - 1.0f, gx11, c11));
+                final float n0Last = lerp(py, Math.fma(last, gx00, c00), Math.fma(last, gx01, c01));
+                final float n1Last = lerp(py, Math.fma(last - 1.0f, gx10, c10), Math.fma(last - 1.0f, gx11, c11));
+                final float min = Math.min(Math.min(n0First, n1First), Math.min(n0Last, n1Last));
+                final float max = Math.max(Math.max(n0First, n1First), Math.max(n0Last, n1Last));
+                if (min >= above) {
+                    if (mask != null) {
+                        setBits(mask, rowOffset + start, rowOffset + end);
+                    }
+                    count += end - start;
+                } else if (max >= below) {
+                    for (int i = start; i < end; i++) {
+                        final float lx = xFractions[i], lx1 = lx - 1.0f;
+                        final float value = lerp(xFades[i],
+                                lerp(py, Math.fma(lx, gx00, c00), Math.fma(lx, gx01, c01)),
+                                lerp(py, Math.fma(lx1, gx10, c10), Math.fma(lx1, gx11, c11)));
+                        if (value >= threshold) {
+                            if (mask != null) {
+                                final int index = rowOffset + i;
+                                mask[index >>> 6] |= 1L << index;
+                            }
+                            count++;
+                        }
+                    }
+                }
+                start = end;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Calculate the per-column lattice data for a range of columns of a grid,
+     * and divide the columns into runs which fall in the same lattice cell.
+     * The point for column {@code col} is {@code x0 + col * step}. Does
+     * nothing if the columns already contain the data for exactly the same
+     * columns of this generator. Only allocates memory if the columns object
+     * is not large enough yet.
+     */
+    void initColumns(Columns columns, double x0, double step, int col0, int width) {
+        if ((columns.owner == this) && (columns.x0 == x0) && (columns.step == step) && (columns.col0 == col0) && (columns.width == width)) {
+            return;
+        }
+        columns.ensureCapacity(width);
+        final int[] xPairs = columns.pairs, runEnds = columns.runEnds;
+        final float[] xFractions = columns.fractions, xFades = columns.fades;
+        int runCount = 0;
+        for (int i = 0; i < width; i++) {
+            final double X = x0 + (col0 + i) * step;
+            final float lx = (float) (X - Math.floor(X));
+            xPairs[i] = getPair((int) Math.floor(X));
+            xFractions[i] = lx;
+            xFades[i] = fade(lx);
+            if ((i > 0) && (xPairs[i] != xPairs[i - 1])) {
+                runEnds[runCount++] = i;
+            }
+        }
+        if (width > 0) {
+            runEnds[runCount++] = width;
+        }
+        columns.runCount = runCount;
+        columns.owner = this;
+        columns.x0 = x0;
+        columns.step = step;
+        columns.col0 = col0;
+        columns.width = width;
+    }
+
+    /**
+     * Sample a range of rows of a two dimensional grid for a set of columns
+     * previously initialised with
+     * {@link #initColumns(Columns, double, double, int, int)}. The point for
+     * row {@code row} is {@code y0 + row * step}, so that regions of the same
+     * grid sampled separately produce exactly the same results as sampling the
+     * entire grid at once. The result for column {@code i} of the columns
+     * object and row {@code row0 + j} is stored in
+     * {@code out[offset + j * stride + i]}.
+     */
+    void sampleRows(float[] out, int offset, int stride, Columns columns, double y0, double step, int row0, int height) {
+        final int[] xPairs = columns.pairs, runEnds = columns.runEnds;
+        final float[] xFractions = columns.fractions, xFades = columns.fades;
+        final int runCount = columns.runCount;
+        for (int j = 0; j < height; j++) {
+            final double Y = y0 + (row0 + j) * step;
+            final int by = (int) Math.floor(Y);
+            final float ly = (float) (Y - Math.floor(Y));
+            final float py = fade(ly);
+            final int rowOffset = offset + j * stride;
+            for (int run = 0, start = 0; run < runCount; run++) {
+                final int end = runEnds[run];
+                final int x = xPairs[start];
+                final int x0y = getPair(x + by);
+                final int x1y = getPair((x >> 8) + by);
+                final int g00 = gradIndex(getPair(x0y)), g01 = gradIndex(getPair(x0y >> 8));
+                final int g10 = gradIndex(getPair(x1y)), g11 = gradIndex(getPair(x1y >> 8));
+                // The Y terms of the gradients are constant for the run
+                final float c00 = ly * LUT2[g00 + 1], c01 = (ly - 1.0f) * LUT2[g01 + 1];
+                final float c10 = ly * LUT2[g10 + 1], c11 = (ly - 1.0f) * LUT2[g11 + 1];
+                final float gx00 = LUT2[g00], gx01 = LUT2[g01], gx10 = LUT2[g10], gx11 = LUT2[g11];
+                for (int i = start; i < end; i++) {
+                    final float lx = xFractions[i], lx1 = lx - 1.0f;
+                    out[rowOffset + i] = lerp(xFades[i],
+                            lerp(py, Math.fma(lx, gx00, c00), Math.fma(lx, gx01, c01)),
+                            lerp(py, Math.fma(lx1, gx10, c10), Math.fma(lx1, gx11, c11)));
+                }
+                start = end;
+            }
+        }
+    }
+
+    /**
+     * Sample a three dimensional volume for a set of columns previously
+     * initialised with {@link #initColumns(Columns, double, double, int, int)}.
+     * The result for column {@code i} of the columns object, row {@code j} and
+     * layer {@code k} is stored in {@code out[(k * height + j) * width + i]},
+     * where {@code width} is the width of the columns object.
+     */
+    void sampleLayers(float[] out, Columns columns, double y0, double z0, double step, int height, int depth) {
+        final int[] xPairs = columns.pairs, runEnds = columns.runEnds;
+        final float[] xFractions = columns.fractions, xFades = columns.fades;
+        final int runCount = columns.runCount, width = columns.width;
+        for (int k = 0; k < depth; k++) {
+            final double Z = z0 + k * step;
+            final int bz = (int) Math.floor(Z);
+            final float lz = (float) (Z - Math.floor(Z));
+            final float pz = fade(lz);
+            for (int j = 0; j < height; j++) {
+                final double Y = y0 + j * step;
+                final int by = (int) Math.floor(Y);
+                final float ly = (float) (Y - Math.floor(Y));
+                final float py = fade(ly);
+                final int offset = (k * height + j) * width;
+                for (int run = 0, start = 0; run < runCount; run++) {
+                    final int end = runEnds[run];
+                    final int x = xPairs[start];
+                    final int x0y = getPair(x + by);
+                    final int x1y = getPair((x >> 8) + by);
+                    final int g000 = gradIndex(getPair(x0y + bz)), g001 = gradIndex(getPair(x0y + bz) >> 8);
+                    final int g010 = gradIndex(getPair((x0y >> 8) + bz)), g011 = gradIndex(getPair((x0y >> 8) + bz) >> 8);
+                    final int g100 = gradIndex(getPair(x1y + bz)), g101 = gradIndex(getPair(x1y + bz) >> 8);
+                    final int g110 = gradIndex(getPair((x1y >> 8) + bz)), g111 = gradIndex(getPair((x1y >> 8) + bz) >> 8);
+                    // The Y and Z terms of the gradients are constant for the
+                    // run
+                    final float c000 = gradYZ(g000, ly, lz), c001 = gradYZ(g001, ly, lz - 1.0f);
+                    final float c010 = gradYZ(g010, ly - 1.0f, lz), c011 = gradYZ(g011, ly - 1.0f, lz - 1.0f);
+                    final float c100 = gradYZ(g100, ly, lz), c101 = gradYZ(g101, ly, lz - 1.0f);
+                    final float c110 = gradYZ(g110, ly - 1.0f, lz), c111 = gradYZ(g111, ly - 1.0f, lz - 1.0f);
+                    final float gx000 = LUT2[g000], gx001 = LUT2[g001], gx010 = LUT2[g010], gx011 = LUT2[g011];
+                    final float gx100 = LUT2[g100], gx101 = LUT2[g101], gx110 = LUT2[g110], gx111 = LUT2[g111];
+                    for (int i = start; i < end; i++) {
+                        final float lx = xFractions[i], lx1 = lx - 1.0f;
+                        out[offset + i] = lerp(xFades[i],
+                                lerp(py,
+                                        lerp(pz, Math.fma(lx, gx000, c000), Math.fma(lx, gx001, c001)),
+                                        lerp(pz, Math.fma(lx, gx010, c010), Math.fma(lx, gx011, c011))),
+                                lerp(py,
+                                        lerp(pz, Math.fma(lx1, gx100, c100), Math.fma(lx1, gx101, c101)),
+                                        lerp(pz, Math.fma(lx1, gx110, c110), Math.fma(lx1, gx111, c111))));
+                    }
+                    start = end;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sample two dimensional noise which repeats with a chosen period along
+     * each axis, for seamless tiles and wrapping edges. The lattice indices
+     * are wrapped to the period, so that the noise at {@code (X, Y)} is the
+     * same as at {@code (X + periodX, Y)} and {@code (X, Y + periodY)}, and
+     * the noise is continuous across the boundaries. Within the first period
+     * the result is identical to {@link #sampleResult(double, double)}, except
+     * in the last lattice cell of each axis, where the far corners are wrapped
+     * around to the first cell. Periods larger than 256 are allowed, but the
+     * pattern then repeats every 256 units within the period.
+     *
+     * @param X The X coordinate.
+     * @param Y The Y coordinate.
+     * @param periodX The period along the X axis, in lattice units. Must be
+     *                positive.
+     * @param periodY The period along the Y axis, in lattice units. Must be
+     *                positive.
+     * @return The noise value.
+     */
+    public float samplePeriodic(double X, double Y, int periodX, int periodY) {
+        final int bx = (int) Math.floor(X), by = (int) Math.floor(Y);
+        final float lx = (float) (X - bx), ly = (float) (Y - by);
+
+        final int x = getWrappedPair(bx, periodX);
+        final int y0 = Math.floorMod(by, periodY), y1 = (y0 + 1 == periodY) ? 0 : y0 + 1;
+        final int x0y = getPerm(x + y0) | (getPerm(x + y1) << 8);
+        final int x1y = getPerm((x >> 8) + y0) | (getPerm((x >> 8) + y1) << 8);
+
         final float py = fade(ly);
-        final float pz = fade(lz);
 
         return lerp(fade(lx),
+                lerp(py,
+                        grad(getPair(x0y), lx, ly),
+                        grad(getPair(x0y >> 8), lx, ly - 1.0f)),
+                lerp(py,
+                        grad(getPair(x1y), lx - 1.0f, ly),
+                        grad(getPair(x1y >> 8), lx - 1.0f, ly - 1.0f)));
+    }
+
+    /**
+     * Sample three dimensional noise which repeats with a chosen period along
+     * each axis. See {@link #samplePeriodic(double, double, int, int)}.
+     *
+     * @param X The X coordinate.
+     * @param Y The Y coordinate.
+     * @param Z The Z coordinate.
+     * @param periodX The period along the X axis, in lattice units. Must be
+     *                positive.
+     * @param periodY The period along the Y axis, in lattice units. Must be
+     *                positive.
+     * @param periodZ The period along the Z axis, in lattice units. Must be
+     *                positive.
+     * @return The noise value.
+     */
+    public float samplePeriodic(double X, double Y, double Z, int periodX, int periodY, int periodZ) {
+        final int bx = (int) Math.floor(X), by = (int) Math.floor(Y), bz = (int) Math.floor(Z);
+        final float lx = (float) (X - bx), ly = (float) (Y - by), lz = (float) (Z - bz);
+        final float px = fade(lx), py = fade(ly), pz = fade(lz);
+
+        final int x = getWrappedPair(bx, periodX);
+        final int y0 = Math.floorMod(by, periodY), y1 = (y0 + 1 == periodY) ? 0 : y0 + 1;
+        final int z0 = Math.floorMod(bz, periodZ), z1 = (z0 + 1 == periodZ) ? 0 : z0 + 1;
+        final int x0y = getPerm(x + y0) | (getPerm(x + y1) << 8);
+        final int x1y = getPerm((x >> 8) + y0) | (getPerm((x >> 8) + y1) << 8);
+        final int x0y0z = getPerm(x0y + z0) | (getPerm(x0y + z1) << 8);
+        final int x0y1z = getPerm((x0y >> 8) + z0) | (getPerm((x0y >> 8) + z1) << 8);
+        final int x1y0z = getPerm(x1y + z0) | (getPerm(x1y + z1) << 8);
+        final int x1y1z = getPerm((x1y >> 8) + z0) | (getPerm((x1y >> 8) + z1) << 8);
+
+        return lerp(px,
                 lerp(py,
                         lerp(pz,
                                 grad(x0y0z, lx, ly, lz),
@@ -96,11 +649,98 @@ public class FastPerlin implements Serializable {
                                 grad(x1y1z >> 8, lx - 1.0f, ly - 1.0f, lz - 1.0f))));
     }
 
+    /**
+     * Sample a two dimensional grid of periodic noise in one go. The layout
+     * of the grid is the same as for
+     * {@link #sampleGrid(float[], double, double, double, int, int)} and the
+     * results are identical to invoking
+     * {@link #samplePeriodic(double, double, int, int)} for each point. To
+     * create a seamless square tile of {@code size} by {@code size} points,
+     * sample from {@code (0, 0)} with a step of {@code period / size}.
+     *
+     * @param out The array in which to store the results. Must have room for
+     *            at least {@code width * height} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows.
+     * @param width The number of columns to sample.
+     * @param height The number of rows to sample.
+     * @param periodX The period along the X axis, in lattice units. Must be
+     *                positive.
+     * @param periodY The period along the Y axis, in lattice units. Must be
+     *                positive.
+     */
+    public void samplePeriodicGrid(float[] out, double x0, double y0, double step, int width, int height, int periodX, int periodY) {
+        final Columns columns = new Columns();
+        columns.ensureCapacity(width);
+        final int[] xPairs = columns.pairs, runEnds = columns.runEnds;
+        final float[] xFractions = columns.fractions, xFades = columns.fades;
+        int runCount = 0, previousBx = 0;
+        for (int i = 0; i < width; i++) {
+            final double X = x0 + i * step;
+            final int bx = (int) Math.floor(X);
+            final float lx = (float) (X - bx);
+            xPairs[i] = getWrappedPair(bx, periodX);
+            xFractions[i] = lx;
+            xFades[i] = fade(lx);
+            // Compare the cells rather than the hashes, which may coincide for
+            // neighbouring cells when the period is 1
+            if ((i > 0) && (bx != previousBx)) {
+                runEnds[runCount++] = i;
+            }
+            previousBx = bx;
+        }
+        if (width > 0) {
+            runEnds[runCount++] = width;
+        }
+        for (int j = 0; j < height; j++) {
+            final double Y = y0 + j * step;
+            final int by = (int) Math.floor(Y);
+            final float ly = (float) (Y - by);
+            final float py = fade(ly);
+            final int yw0 = Math.floorMod(by, periodY), yw1 = (yw0 + 1 == periodY) ? 0 : yw0 + 1;
+            final int rowOffset = j * width;
+            for (int run = 0, start = 0; run < runCount; run++) {
+                final int end = runEnds[run];
+                final int x = xPairs[start];
+                final int x0y = getPerm(x + yw0) | (getPerm(x + yw1) << 8);
+                final int x1y = getPerm((x >> 8) + yw0) | (getPerm((x >> 8) + yw1) << 8);
+                final int g00 = gradIndex(getPair(x0y)), g01 = gradIndex(getPair(x0y >> 8));
+                final int g10 = gradIndex(getPair(x1y)), g11 = gradIndex(getPair(x1y >> 8));
+                final float c00 = ly * LUT2[g00 + 1], c01 = (ly - 1.0f) * LUT2[g01 + 1];
+                final float c10 = ly * LUT2[g10 + 1], c11 = (ly - 1.0f) * LUT2[g11 + 1];
+                final float gx00 = LUT2[g00], gx01 = LUT2[g01], gx10 = LUT2[g10], gx11 = LUT2[g11];
+                for (int i = start; i < end; i++) {
+                    final float lx = xFractions[i], lx1 = lx - 1.0f;
+                    out[rowOffset + i] = lerp(xFades[i],
+                            lerp(py, Math.fma(lx, gx00, c00), Math.fma(lx, gx01, c01)),
+                            lerp(py, Math.fma(lx1, gx10, c10), Math.fma(lx1, gx11, c11)));
+                }
+                start = end;
+            }
+        }
+    }
+
+    /**
+     * Get the permutation entries for lattice index {@code i} and its
+     * neighbour, wrapped to a period, in the same format as
+     * {@link #getPair(int)}. Where the neighbour does not wrap around this is
+     * the same as {@code getPair(i)}.
+     */
+    private int getWrappedPair(int i, int period) {
+        final int i0 = Math.floorMod(i, period), i1 = (i0 + 1 == period) ? 0 : i0 + 1;
+        return getPerm(i0) | (getPerm(i1) << 8);
+    }
+
+    private int getPerm(int idx) {
+        return permPair[idx & 0xFF] & 0xFF;
+    }
+
     private int getPair(int idx) {
         return permPair[idx & 0xFF] & 0xFFFF;
     }
 
-    private static float fade(float v) {
+    static float fade(float v) {
         return v * v * v * Math.fma(v, Math.fma(v, 6f, -15f), 10f);
     }
 
@@ -119,11 +759,123 @@ public class FastPerlin implements Serializable {
         return Math.fma(x, LUT2[v], y * LUT2[v + 1]);
     }
 
+    /**
+     * The derivative of {@link #fade(float)}.
+     */
+    static float fadeDerivative(float v) {
+        final float w = v * (v - 1.0f);
+        return 30.0f * w * w;
+    }
+
+    /**
+     * Trilinearly interpolate one component of the gradients of the corners
+     * of a lattice cell, given by their indices in {@link #LUT2}.
+     */
+    private static float interpolate(int g000, int g001, int g010, int g011, int g100, int g101, int g110, int g111, int component, float px, float py, float pz) {
+        return lerp(px,
+                lerp(py, lerp(pz, LUT2[g000 + component], LUT2[g001 + component]), lerp(pz, LUT2[g010 + component], LUT2[g011 + component])),
+                lerp(py, lerp(pz, LUT2[g100 + component], LUT2[g101 + component]), lerp(pz, LUT2[g110 + component], LUT2[g111 + component])));
+    }
+
+    /**
+     * Set a range of bits in a mask in the layout of
+     * {@link java.util.BitSet#valueOf(long[])}.
+     *
+     * @param from The index of the first bit to set.
+     * @param to The index after the last bit to set.
+     */
+    private static void setBits(long[] mask, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        final int firstWord = from >>> 6, lastWord = (to - 1) >>> 6;
+        final long firstMask = -1L << from, lastMask = -1L >>> -to;
+        if (firstWord == lastWord) {
+            mask[firstWord] |= firstMask & lastMask;
+        } else {
+            mask[firstWord] |= firstMask;
+            Arrays.fill(mask, firstWord + 1, lastWord, -1L);
+            mask[lastWord] |= lastMask;
+        }
+    }
+
+    private static int gradIndex(int v) {
+        return (v & 15) * 3;
+    }
+
+    private static float gradYZ(int i, float y, float z) {
+        return Math.fma(y, LUT2[i + 1], z * LUT2[i + 2]);
+    }
+
     private static float lerp(float progress, float a, float b) {
         return Math.fma(b - a, progress, a);
     }
 
-    private final short[] permPair = new short[256];
+    /**
+     * Get the permutation pairs table for a seed, as created by
+     * {@link #createPermutationPairs(long)}, from a cache shared by all
+     * generators, so that generators with the same seed share one table and
+     * recreating generators for recently used seeds does not have to shuffle
+     * and allocate again. The returned table is shared and must not be
+     * modified.
+     *
+     * @param seed The seed of the permutation.
+     * @return The permutation pairs table.
+     */
+    static short[] getPermutationPairs(long seed) {
+        return PERMUTATION_PAIRS_CACHE.getUnchecked(seed);
+    }
+
+    /**
+     * Create a seeded pseudo random permutation of the numbers 0-255, in the
+     * form of a table of pairs, each entry of which contains permutation
+     * entry {@code i} in the low byte and permutation entry {@code i + 1}
+     * (wrapping around) in the high byte. The permutation is the same as that
+     * produced by shuffling with {@link java.util.Random} the way
+     * {@link se.liu.itn.stegu.SimplexNoise} does it.
+     *
+     * @param seed The seed of the permutation.
+     * @return The permutation pairs table.
+     */
+    static short[] createPermutationPairs(long seed) {
+        final UnsafeRandom r = new UnsafeRandom(seed);
+        final byte[] permutation = new byte[256];
+        for (int i = 0; i < 256; ++i) {
+            permutation[i] = (byte) i;
+        }
+
+        for (int i = 0; i < 256; ++i) {
+            final int j = r.nextInt(256 - i);
+            final byte b = permutation[255 - i];
+            permutation[255 - i] = permutation[j];
+            permutation[j] = b;
+        }
+
+        final short[] permPair = new short[256];
+        for (int i = 0; i < 256; i++) {
+            permPair[i] = (short) ((permutation[i] & 0xFF) | ((permutation[(i + 1) & 0xFF] & 0xFF) << 8));
+        }
+        return permPair;
+    }
+
+    private final short[] permPair;
+
+    /**
+     * The margin, in raw noise units, by which the bounds of a run of points
+     * must clear a threshold for the run to be decided without sampling the
+     * points.
+     */
+    private static final float THRESHOLD_MARGIN = 1.0e-5f;
+
+    /**
+     * The maximum number of permutation pairs tables to cache, at about 530
+     * bytes each.
+     */
+    private static final int PERMUTATION_PAIRS_CACHE_SIZE = 1024;
+
+    private static final LoadingCache<Long, short[]> PERMUTATION_PAIRS_CACHE = CacheBuilder.newBuilder()
+            .maximumSize(PERMUTATION_PAIRS_CACHE_SIZE)
+            .build(CacheLoader.from(FastPerlin::createPermutationPairs));
 
     private static final float[] LUT2 = {
         1, 1, 0,
@@ -145,4 +897,27 @@ public class FastPerlin implements Serializable {
     };
     @Serial
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Scratch space for the per-column lattice data of a grid or volume,
+     * which can be reused for multiple invocations to avoid allocating memory
+     * for each one. Not thread safe.
+     */
+    static final class Columns {
+        void ensureCapacity(int width) {
+            if (pairs.length < width) {
+                pairs = new int[width];
+                runEnds = new int[width];
+                fractions = new float[width];
+                fades = new float[width];
+            }
+        }
+
+        int[] pairs = new int[0], runEnds = new int[0];
+        float[] fractions = new float[0], fades = new float[0];
+        int runCount;
+        FastPerlin owner;
+        double x0, step;
+        int col0, width;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,571 @@
+package org.pepsoft.util;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Fast implementation of two and three dimensional simplex noise, in the style
+ * of {@link FastPerlin}. Uses the same permutation as
+ * {@link se.liu.itn.stegu.SimplexNoise} for the same seed, and the same
+ * gradients and scaling, so that the results match those of that class to
+ * within {@code float} precision, but stores the permutation as a table of
+ * pairs and performs the per-corner calculations branch-free in
+ * {@code float} arithmetic using fused multiply-adds. Use
+ * {@code SimplexNoise} where {@code double} precision is required.
+ *
+ * <p>The bulk methods look up the permutation entries of the corners of each
+ * simplex cell only once for all the consecutive points which fall in it,
+ * rather than for each point.
+ *
+ * <p>The results are between -1.0 and 1.0.
+ */
+public class FastSimplex implements Serializable {
+    public FastSimplex(long seed) {
+        this.seed = seed;
+        permPair = FastPerlin.getPermutationPairs(seed);
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public float sampleResult(double X, double Y) {
+        // Skew the input space to determine which simplex cell we're in
+        final double s = (X + Y) * F2;
+        final int i = fastFloor(X + s);
+        final int j = fastFloor(Y + s);
+        final double t = (i + j) * G2;
+        // The distances from the cell origin
+        final float x0 = (float) (X - (i - t));
+        final float y0 = (float) (Y - (j - t));
+        // Offsets for second (middle) corner of simplex in (i,j) coords
+        final int i1 = (x0 > y0) ? 1 : 0;
+        final int j1 = 1 - i1;
+
+        return 70.0f * (corner(hash(i, j, 0, 0), x0, y0)
+                + corner(hash(i, j, i1, j1), x0 - i1 + G2F, y0 - j1 + G2F)
+                + corner(hash(i, j, 1, 1), x0 - 1.0f + 2.0f * G2F, y0 - 1.0f + 2.0f * G2F));
+    }
+
+    public float sampleResult(double X, double Y, double Z) {
+        // Skew the input space to determine which simplex cell we're in
+        final double s = (X + Y + Z) * F3;
+        final int i = fastFloor(X + s);
+        final int j = fastFloor(Y + s);
+        final int k = fastFloor(Z + s);
+        final double t = (i + j + k) * G3;
+        // The distances from the cell origin
+        final float x0 = (float) (X - (i - t));
+        final float y0 = (float) (Y - (j - t));
+        final float z0 = (float) (Z - (k - t));
+        // Offsets for the second and third corners of simplex in (i,j,k)
+        // coords, determined by the rank order of the coordinates
+        final int xGeY = (x0 >= y0) ? 1 : 0, yGeZ = (y0 >= z0) ? 1 : 0, xGeZ = (x0 >= z0) ? 1 : 0;
+        final int i1 = xGeY & xGeZ;
+        final int j1 = (1 - xGeY) & yGeZ;
+        final int k1 = (1 - xGeZ) & (1 - yGeZ);
+        final int i2 = xGeY | xGeZ;
+        final int j2 = (1 - xGeY) | yGeZ;
+        final int k2 = (1 - xGeZ) | (1 - yGeZ);
+
+        return 32.0f * (corner(hash(i, j, k, 0, 0, 0), x0, y0, z0)
+                + corner(hash(i, j, k, i1, j1, k1), x0 - i1 + G3F, y0 - j1 + G3F, z0 - k1 + G3F)
+                + corner(hash(i, j, k, i2, j2, k2), x0 - i2 + 2.0f * G3F, y0 - j2 + 2.0f * G3F, z0 - k2 + 2.0f * G3F)
+                + corner(hash(i, j, k, 1, 1, 1), x0 - 1.0f + 3.0f * G3F, y0 - 1.0f + 3.0f * G3F, z0 - 1.0f + 3.0f * G3F));
+    }
+
+    /**
+     * Sample two dimensional noise together with its partial derivatives,
+     * which are calculated analytically from the radial falloff of the
+     * corners.
+     *
+     * @param X The X coordinate.
+     * @param Y The Y coordinate.
+     * @param out The array in which to store the results. The value, which is
+     *            identical to the result of
+     *            {@link #sampleResult(double, double)}, is stored at index 0,
+     *            the partial derivative with respect to X at index 1 and the
+     *            partial derivative with respect to Y at index 2.
+     */
+    public void sampleWithDerivatives(double X, double Y, float[] out) {
+        final double s = (X + Y) * F2;
+        final int i = fastFloor(X + s);
+        final int j = fastFloor(Y + s);
+        final double t = (i + j) * G2;
+        final float x0 = (float) (X - (i - t));
+        final float y0 = (float) (Y - (j - t));
+        final int i1 = (x0 > y0) ? 1 : 0;
+        final int j1 = 1 - i1;
+
+        out[0] = 0.0f;
+        out[1] = 0.0f;
+        out[2] = 0.0f;
+        corner(hash(i, j, 0, 0), x0, y0, out);
+        corner(hash(i, j, i1, j1), x0 - i1 + G2F, y0 - j1 + G2F, out);
+        corner(hash(i, j, 1, 1), x0 - 1.0f + 2.0f * G2F, y0 - 1.0f + 2.0f * G2F, out);
+        out[0] *= 70.0f;
+        out[1] *= 70.0f;
+        out[2] *= 70.0f;
+    }
+
+    /**
+     * Sample three dimensional noise together with its partial derivatives,
+     * which are calculated analytically from the radial falloff of the
+     * corners.
+     *
+     * @param X The X coordinate.
+     * @param Y The Y coordinate.
+     * @param Z The Z coordinate.
+     * @param out The array in which to store the results. The value, which is
+     *            identical to the result of
+     *            {@link #sampleResult(double, double, double)}, is stored at
+     *            index 0, and the partial derivatives with respect to X, Y and
+     *            Z at indices 1, 2 and 3.
+     */
+    public void sampleWithDerivatives(double X, double Y, double Z, float[] out) {
+        final double s = (X + Y + Z) * F3;
+        final int i = fastFloor(X + s);
+        final int j = fastFloor(Y + s);
+        final int k = fastFloor(Z + s);
+        final double t = (i + j + k) * G3;
+        final float x0 = (float) (X - (i - t));
+        final float y0 = (float) (Y - (j - t));
+        final float z0 = (float) (Z - (k - t));
+        final int xGeY = (x0 >= y0) ? 1 : 0, yGeZ = (y0 >= z0) ? 1 : 0, xGeZ = (x0 >= z0) ? 1 : 0;
+        final int i1 = xGeY & xGeZ;
+        final int j1 = (1 - xGeY) & yGeZ;
+        final int k1 = (1 - xGeZ) & (1 - yGeZ);
+        final int i2 = xGeY | xGeZ;
+        final int j2 = (1 - xGeY) | yGeZ;
+        final int k2 = (1 - xGeZ) | (1 - yGeZ);
+
+        out[0] = 0.0f;
+        out[1] = 0.0f;
+        out[2] = 0.0f;
+        out[3] = 0.0f;
+        corner(hash(i, j, k, 0, 0, 0), x0, y0, z0, out);
+        corner(hash(i, j, k, i1, j1, k1), x0 - i1 + G3F, y0 - j1 + G3F, z0 - k1 + G3F, out);
+        corner(hash(i, j, k, i2, j2, k2), x0 - i2 + 2.0f * G3F, y0 - j2 + 2.0f * G3F, z0 - k2 + 2.0f * G3F, out);
+        corner(hash(i, j, k, 1, 1, 1), x0 - 1.0f + 3.0f * G3F, y0 - 1.0f + 3.0f * G3F, z0 - 1.0f + 3.0f * G3F, out);
+        out[0] *= 32.0f;
+        out[1] *= 32.0f;
+        out[2] *= 32.0f;
+        out[3] *= 32.0f;
+    }
+
+    /**
+     * Sample a two dimensional grid of points in one go. The point for grid
+     * coordinates {@code (i, j)} is {@code (x0 + i * step, y0 + j * step)} and
+     * the result for it is stored in {@code out[j * width + i]}. The results
+     * are identical to invoking {@link #sampleResult(double, double)} for each
+     * point.
+     *
+     * @param out The array in which to store the results. Must have room for
+     *            at least {@code width * height} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows.
+     * @param width The number of columns to sample.
+     * @param height The number of rows to sample.
+     */
+    public void sampleGrid(float[] out, double x0, double y0, double step, int width, int height) {
+        sampleGrid(out, 0, width, x0, y0, step, 0, 0, width, height);
+    }
+
+    /**
+     * Sample a two dimensional grid of points in parallel. The grid is
+     * divided into tiles which are sampled as separate tasks on a fork/join
+     * pool. The results are identical to those of
+     * {@link #sampleGrid(float[], double, double, double, int, int)}.
+     *
+     * @param out The array in which to store the results. Must have room for
+     *            at least {@code width * height} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows.
+     * @param width The number of columns to sample.
+     * @param height The number of rows to sample.
+     * @param pool The pool on which to sample the tiles, or {@code null} to
+     *             use the common pool.
+     * @param progressReceiver The progress receiver to which to report
+     *                         progress and which to check for cancellation.
+     *                         May be {@code null}.
+     * @throws ProgressReceiver.OperationCancelled If the progress receiver
+     *     indicated that the operation should be cancelled.
+     */
+    public void sampleGridParallel(float[] out, double x0, double y0, double step, int width, int height, ForkJoinPool pool, ProgressReceiver progressReceiver) throws ProgressReceiver.OperationCancelled {
+        ParallelGridSampler.sampleGrid(out, width, height, (tileOut, offset, stride, col0, row0, tileWidth, tileHeight) ->
+                sampleGrid(tileOut, offset, stride, x0, y0, step, col0, row0, tileWidth, tileHeight), pool, progressReceiver);
+    }
+
+    /**
+     * Sample a two dimensional grid of points together with the partial
+     * derivatives of the noise in one go. The layout of the grid is the same as
+     * for {@link #sampleGrid(float[], double, double, double, int, int)} and
+     * the results are identical to invoking
+     * {@link #sampleWithDerivatives(double, double, float[])} for each point.
+     *
+     * @param values The array in which to store the values. Must have room for
+     *               at least {@code width * height} values.
+     * @param dx The array in which to store the partial derivatives with
+     *           respect to X. Must have room for at least
+     *           {@code width * height} values.
+     * @param dy The array in which to store the partial derivatives with
+     *           respect to Y. Must have room for at least
+     *           {@code width * height} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows.
+     * @param width The number of columns to sample.
+     * @param height The number of rows to sample.
+     */
+    public void sampleGridWithDerivatives(float[] values, float[] dx, float[] dy, double x0, double y0, double step, int width, int height) {
+        final int[] cell = createCellCache(6);
+        for (int j = 0, index = 0; j < height; j++) {
+            final double Y = y0 + j * step;
+            for (int i = 0; i < width; i++, index++) {
+                sampleWithDerivatives(x0 + i * step, Y, values, dx, dy, index, cell);
+            }
+        }
+    }
+
+    /**
+     * Sample a three dimensional volume of points in one go. The point for
+     * volume coordinates {@code (i, j, k)} is
+     * {@code (x0 + i * step, y0 + j * step, z0 + k * step)} and the result for
+     * it is stored in {@code out[(k * height + j) * width + i]}. The results are
+     * identical to invoking {@link #sampleResult(double, double, double)} for
+     * each point.
+     *
+     * @param out The array in which to store the results. Must have room for
+     *            at least {@code width * height * depth} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param z0 The Z coordinate of the first layer.
+     * @param step The distance between consecutive columns, rows and layers.
+     * @param width The number of columns to sample.
+     * @param height The number of rows to sample.
+     * @param depth The number of layers to sample.
+     */
+    public void sampleVolume(float[] out, double x0, double y0, double z0, double step, int width, int height, int depth) {
+        final int[] cell = createCellCache(11);
+        for (int k = 0, index = 0; k < depth; k++) {
+            final double Z = z0 + k * step;
+            for (int j = 0; j < height; j++) {
+                final double Y = y0 + j * step;
+                for (int i = 0; i < width; i++, index++) {
+                    out[index] = sampleResult(x0 + i * step, Y, Z, cell);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sample a rectangular region of a two dimensional grid. The point for
+     * grid coordinates {@code (col, row)} is
+     * {@code (x0 + col * step, y0 + row * step)}, so that regions of the same
+     * grid sampled separately produce exactly the same results as sampling the
+     * entire grid at once. The result for {@code (col0 + i, row0 + j)} is
+     * stored in {@code out[offset + j * stride + i]}.
+     */
+    void sampleGrid(float[] out, int offset, int stride, double x0, double y0, double step, int col0, int row0, int width, int height) {
+        final int[] cell = createCellCache(6);
+        for (int j = 0; j < height; j++) {
+            final double Y = y0 + (row0 + j) * step;
+            for (int i = 0, index = offset + j * stride; i < width; i++, index++) {
+                out[index] = sampleResult(x0 + (col0 + i) * step, Y, cell);
+            }
+        }
+    }
+
+    /**
+     * Sample two dimensional noise in the same way as
+     * {@link #sampleResult(double, double)}, but take the permutation entries
+     * of the corners from a cache of those of the last cell.
+     *
+     * @param cell The cache, created with {@link #createCellCache(int)}, of
+     *             length 6. See {@link #lookUpCell(int[], int, int)}.
+     */
+    private float sampleResult(double X, double Y, int[] cell) {
+        final double s = (X + Y) * F2;
+        final int i = fastFloor(X + s);
+        final int j = fastFloor(Y + s);
+        if ((i != cell[0]) || (j != cell[1])) {
+            lookUpCell(cell, i, j);
+        }
+        final double t = (i + j) * G2;
+        final float x0 = (float) (X - (i - t));
+        final float y0 = (float) (Y - (j - t));
+        final int i1 = (x0 > y0) ? 1 : 0;
+        final int j1 = 1 - i1;
+
+        return 70.0f * (corner(cell[2], x0, y0)
+                + corner(cell[2 + i1 + 2 * j1], x0 - i1 + G2F, y0 - j1 + G2F)
+                + corner(cell[5], x0 - 1.0f + 2.0f * G2F, y0 - 1.0f + 2.0f * G2F));
+    }
+
+    /**
+     * Sample three dimensional noise in the same way as
+     * {@link #sampleResult(double, double, double)}, but take the permutation
+     * entries of the corners from a cache of those of the last cell.
+     *
+     * @param cell The cache, created with {@link #createCellCache(int)}, of
+     *             length 11. See {@link #lookUpCell(int[], int, int, int)}.
+     */
+    private float sampleResult(double X, double Y, double Z, int[] cell) {
+        final double s = (X + Y + Z) * F3;
+        final int i = fastFloor(X + s);
+        final int j = fastFloor(Y + s);
+        final int k = fastFloor(Z + s);
+        if ((i != cell[0]) || (j != cell[1]) || (k != cell[2])) {
+            lookUpCell(cell, i, j, k);
+        }
+        final double t = (i + j + k) * G3;
+        final float x0 = (float) (X - (i - t));
+        final float y0 = (float) (Y - (j - t));
+        final float z0 = (float) (Z - (k - t));
+        final int xGeY = (x0 >= y0) ? 1 : 0, yGeZ = (y0 >= z0) ? 1 : 0, xGeZ = (x0 >= z0) ? 1 : 0;
+        final int i1 = xGeY & xGeZ;
+        final int j1 = (1 - xGeY) & yGeZ;
+        final int k1 = (1 - xGeZ) & (1 - yGeZ);
+        final int i2 = xGeY | xGeZ;
+        final int j2 = (1 - xGeY) | yGeZ;
+        final int k2 = (1 - xGeZ) | (1 - yGeZ);
+
+        return 32.0f * (corner(cell[3], x0, y0, z0)
+                + corner(cell[3 + i1 + 2 * j1 + 4 * k1], x0 - i1 + G3F, y0 - j1 + G3F, z0 - k1 + G3F)
+                + corner(cell[3 + i2 + 2 * j2 + 4 * k2], x0 - i2 + 2.0f * G3F, y0 - j2 + 2.0f * G3F, z0 - k2 + 2.0f * G3F)
+                + corner(cell[10], x0 - 1.0f + 3.0f * G3F, y0 - 1.0f + 3.0f * G3F, z0 - 1.0f + 3.0f * G3F));
+    }
+
+    /**
+     * Sample two dimensional noise together with its partial derivatives in
+     * the same way as {@link #sampleWithDerivatives(double, double, float[])},
+     * but take the permutation entries of the corners from a cache of those of
+     * the last cell, and accumulate the results of the corners in local
+     * variables rather than in an array.
+     *
+     * @param cell The cache, created with {@link #createCellCache(int)}, of
+     *             length 6. See {@link #lookUpCell(int[], int, int)}.
+     */
+    private void sampleWithDerivatives(double X, double Y, float[] values, float[] dx, float[] dy, int index, int[] cell) {
+        final double s = (X + Y) * F2;
+        final int i = fastFloor(X + s);
+        final int j = fastFloor(Y + s);
+        if ((i != cell[0]) || (j != cell[1])) {
+            lookUpCell(cell, i, j);
+        }
+        final double t = (i + j) * G2;
+        final float x0 = (float) (X - (i - t));
+        final float y0 = (float) (Y - (j - t));
+        final int i1 = (x0 > y0) ? 1 : 0;
+        final int j1 = 1 - i1;
+
+        float value = 0.0f, valueDx = 0.0f, valueDy = 0.0f;
+        for (int c = 0; c < 3; c++) {
+            // The same calculation as corner(int, float, float, float[])
+            final float x, y;
+            final int hash;
+            if (c == 0) {
+                x = x0;
+                y = y0;
+                hash = cell[2];
+            } else if (c == 1) {
+                x = x0 - i1 + G2F;
+                y = y0 - j1 + G2F;
+                hash = cell[2 + i1 + 2 * j1];
+            } else {
+                x = x0 - 1.0f + 2.0f * G2F;
+                y = y0 - 1.0f + 2.0f * G2F;
+                hash = cell[5];
+            }
+            final float ct = Math.max(0.5f - Math.fma(x, x, y * y), 0.0f);
+            final float ct2 = ct * ct;
+            final float gx = GRAD_X[hash], gy = GRAD_Y[hash];
+            final float dot = Math.fma(x, gx, y * gy);
+            final float ct4 = ct2 * ct2, cd = -8.0f * ct2 * ct * dot;
+            value += ct4 * dot;
+            valueDx += Math.fma(cd, x, ct4 * gx);
+            valueDy += Math.fma(cd, y, ct4 * gy);
+        }
+        values[index] = value * 70.0f;
+        dx[index] = valueDx * 70.0f;
+        dy[index] = valueDy * 70.0f;
+    }
+
+    /**
+     * Create a cache for the permutation entries of the corners of a simplex
+     * cell, which does not contain any cell yet.
+     */
+    private static int[] createCellCache(int length) {
+        final int[] cell = new int[length];
+        Arrays.fill(cell, Integer.MIN_VALUE);
+        return cell;
+    }
+
+    /**
+     * Store the coordinates of a two dimensional simplex cell at indices 0 and
+     * 1 of a cache, and the permutation entries of the corners of the square
+     * containing it, as calculated by {@link #hash(int, int, int, int)}, at
+     * index {@code 2 + ic + 2 * jc}. Takes three table lookups, rather than
+     * the six needed for the three corners of a single point.
+     */
+    private void lookUpCell(int[] cell, int i, int j) {
+        final int pj = getPair(j);
+        final int pair0 = getPair(i + (pj & 0xFF)), pair1 = getPair(i + (pj >> 8));
+        cell[0] = i;
+        cell[1] = j;
+        cell[2] = pair0 & 0xFF;
+        cell[3] = pair0 >> 8;
+        cell[4] = pair1 & 0xFF;
+        cell[5] = pair1 >> 8;
+    }
+
+    /**
+     * Store the coordinates of a three dimensional simplex cell at indices 0
+     * to 2 of a cache, and the permutation entries of the corners of the cube
+     * containing it, as calculated by
+     * {@link #hash(int, int, int, int, int, int)}, at index
+     * {@code 3 + ic + 2 * jc + 4 * kc}. Takes seven table lookups, rather than
+     * the twelve needed for the four corners of a single point.
+     */
+    private void lookUpCell(int[] cell, int i, int j, int k) {
+        final int pk = getPair(k);
+        cell[0] = i;
+        cell[1] = j;
+        cell[2] = k;
+        for (int kc = 0; kc < 2; kc++) {
+            final int pjk = getPair(j + ((pk >> (kc << 3)) & 0xFF));
+            for (int jc = 0; jc < 2; jc++) {
+                final int pair = getPair(i + ((pjk >> (jc << 3)) & 0xFF));
+                cell[3 + 2 * jc + 4 * kc] = pair & 0xFF;
+                cell[4 + 2 * jc + 4 * kc] = pair >> 8;
+            }
+        }
+    }
+
+    /**
+     * Get the permutation entry for a corner of a two dimensional simplex
+     * cell: {@code perm[i + ic + perm[j + jc]]}.
+     */
+    private int hash(int i, int j, int ic, int jc) {
+        final int p = (getPair(j) >> (jc << 3)) & 0xFF;
+        return (getPair(i + p) >> (ic << 3)) & 0xFF;
+    }
+
+    /**
+     * Get the permutation entry for a corner of a three dimensional simplex
+     * cell: {@code perm[i + ic + perm[j + jc + perm[k + kc]]]}.
+     */
+    private int hash(int i, int j, int k, int ic, int jc, int kc) {
+        final int p = (getPair(k) >> (kc << 3)) & 0xFF;
+        final int q = (getPair(j + p) >> (jc << 3)) & 0xFF;
+        return (getPair(i + q) >> (ic << 3)) & 0xFF;
+    }
+
+    /**
+     * Considerably faster than {@code (int) Math.floor(x)}, and equivalent as
+     * long as {@code x} is within the range of {@code int}.
+     */
+    private static int fastFloor(double x) {
+        final int xi = (int) x;
+        return (x < xi) ? xi - 1 : xi;
+    }
+
+    private int getPair(int idx) {
+        return permPair[idx & 0xFF] & 0xFFFF;
+    }
+
+    private static float corner(int hash, float x, float y) {
+        final float t = Math.max(0.5f - Math.fma(x, x, y * y), 0.0f);
+        final float t2 = t * t;
+        return t2 * t2 * Math.fma(x, GRAD_X[hash], y * GRAD_Y[hash]);
+    }
+
+    private static float corner(int hash, float x, float y, float z) {
+        final float t = Math.max(0.6f - Math.fma(x, x, Math.fma(y, y, z * z)), 0.0f);
+        final float t2 = t * t;
+        return t2 * t2 * Math.fma(x, GRAD_X[hash], Math.fma(y, GRAD_Y[hash], z * GRAD_Z[hash]));
+    }
+
+    /**
+     * Add the value of a corner to {@code out[0]} and its partial derivatives
+     * to {@code out[1]} and {@code out[2]}. The value is calculated in the
+     * same way as by {@link #corner(int, float, float)}.
+     */
+    private static void corner(int hash, float x, float y, float[] out) {
+        final float t = Math.max(0.5f - Math.fma(x, x, y * y), 0.0f);
+        final float t2 = t * t;
+        final float gx = GRAD_X[hash], gy = GRAD_Y[hash];
+        final float dot = Math.fma(x, gx, y * gy);
+        // d(t^4 * dot) = t^4 * gradient - 8 * t^3 * dot * offset
+        final float t4 = t2 * t2, c = -8.0f * t2 * t * dot;
+        out[0] += t4 * dot;
+        out[1] += Math.fma(c, x, t4 * gx);
+        out[2] += Math.fma(c, y, t4 * gy);
+    }
+
+    /**
+     * Add the value of a corner to {@code out[0]} and its partial derivatives
+     * to {@code out[1]}, {@code out[2]} and {@code out[3]}. The value is
+     * calculated in the same way as by {@link #corner(int, float, float, float)}.
+     */
+    private static void corner(int hash, float x, float y, float z, float[] out) {
+        final float t = Math.max(0.6f - Math.fma(x, x, Math.fma(y, y, z * z)), 0.0f);
+        final float t2 = t * t;
+        final float gx = GRAD_X[hash], gy = GRAD_Y[hash], gz = GRAD_Z[hash];
+        final float dot = Math.fma(x, gx, Math.fma(y, gy, z * gz));
+        final float t4 = t2 * t2, c = -8.0f * t2 * t * dot;
+        out[0] += t4 * dot;
+        out[1] += Math.fma(c, x, t4 * gx);
+        out[2] += Math.fma(c, y, t4 * gy);
+        out[3] += Math.fma(c, z, t4 * gz);
+    }
+
+    private final long seed;
+    private final short[] permPair;
+
+    private static final double F2 = 0.5 * (Math.sqrt(3.0) - 1.0);
+    private static final double G2 = (3.0 - Math.sqrt(3.0)) / 6.0;
+    private static final double F3 = 1.0 / 3.0;
+    private static final double G3 = 1.0 / 6.0;
+    private static final float G2F = (float) G2;
+    private static final float G3F = (float) G3;
+
+    /**
+     * The gradients of the reference implementation. Copied into
+     * {@link #GRAD_X}, {@link #GRAD_Y} and {@link #GRAD_Z} by permutation
+     * entry, replacing the {@code perm[i] % 12} table of the reference
+     * implementation.
+     */
+    private static final float[] GRAD3 = {
+        1, 1, 0,
+        -1, 1, 0,
+        1, -1, 0,
+        -1, -1, 0,
+        1, 0, 1,
+        -1, 0, 1,
+        1, 0, -1,
+        -1, 0, -1,
+        0, 1, 1,
+        0, -1, 1,
+        0, 1, -1,
+        0, -1, -1
+    };
+
+    private static final float[] GRAD_X = new float[256], GRAD_Y = new float[256], GRAD_Z = new float[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            final int g = (i % 12) * 3;
+            GRAD_X[i] = GRAD3[g];
+            GRAD_Y[i] = GRAD3[g + 1];
+            GRAD_Z[i] = GRAD3[g + 2];
+        }
+    }
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,272 @@
+package org.pepsoft.util;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+import static org.pepsoft.util.PerlinNoise.FACTOR_2D;
+import static org.pepsoft.util.PerlinNoise.FACTOR_3D;
+
+/**
+ * Multi-octave fractal noise built from Perlin noise. Each octave has its own
+ * permutation table, frequency and amplitude, all of which are calculated
+ * once when the generator is created, and all octaves for a point are
+ * evaluated in one loop.
+ *
+ * <p>Each octave is scaled the same way as {@link PerlinNoise}. The octaves
+ * are combined according to the {@link Type} and the result is normalised by
+ * the sum of the amplitudes, so that the output stays within the range
+ * reported by {@link #getMinValue()} and {@link #getMaxValue()} regardless of
+ * the configuration.
+ */
+public final class FractalNoise implements Serializable {
+    /**
+     * Create a new fractional Brownian motion noise generator.
+     *
+     * @param seed The seed of the first octave. Subsequent octaves use
+     *             subsequent seeds.
+     * @param octaves The number of octaves.
+     * @param lacunarity The factor by which the frequency increases for each
+     *                   subsequent octave.
+     * @param gain The factor by which the amplitude decreases for each
+     *             subsequent octave.
+     */
+    public FractalNoise(long seed, int octaves, double lacunarity, double gain) {
+        this(Type.FBM, seed, octaves, lacunarity, gain);
+    }
+
+    /**
+     * Create a new fractal noise generator.
+     *
+     * @param type How the octaves should be combined.
+     * @param seed The seed of the first octave. Subsequent octaves use
+     *             subsequent seeds.
+     * @param octaves The number of octaves.
+     * @param lacunarity The factor by which the frequency increases for each
+     *                   subsequent octave.
+     * @param gain The factor by which the amplitude decreases for each
+     *             subsequent octave.
+     */
+    public FractalNoise(Type type, long seed, int octaves, double lacunarity, double gain) {
+        if (octaves < 1) {
+            throw new IllegalArgumentException("octaves " + octaves + " < 1");
+        }
+        if ((lacunarity <= 0.0) || (gain <= 0.0)) {
+            throw new IllegalArgumentException("lacunarity and gain must be positive");
+        }
+        this.type = type;
+        this.seed = seed;
+        this.lacunarity = lacunarity;
+        this.gain = gain;
+        generators = new FastPerlin[octaves];
+        frequencies = new double[octaves];
+        amplitudes = new float[octaves];
+        double frequency = 1.0, amplitude = 1.0, totalAmplitude = 0.0;
+        for (int i = 0; i < octaves; i++) {
+            generators[i] = new FastPerlin(seed + i);
+            frequencies[i] = frequency;
+            totalAmplitude += amplitude;
+            frequency *= lacunarity;
+            amplitude *= gain;
+        }
+        amplitude = 1.0;
+        for (int i = 0; i < octaves; i++) {
+            amplitudes[i] = (float) (amplitude / totalAmplitude);
+            amplitude *= gain;
+        }
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getOctaves() {
+        return generators.length;
+    }
+
+    public double getLacunarity() {
+        return lacunarity;
+    }
+
+    public double getGain() {
+        return gain;
+    }
+
+    /**
+     * Get the lowest value this generator can produce.
+     *
+     * @return The lowest value this generator can produce.
+     */
+    public float getMinValue() {
+        return (type == Type.FBM) ? -0.5f : 0.0f;
+    }
+
+    /**
+     * Get the highest value this generator can produce.
+     *
+     * @return The highest value this generator can produce.
+     */
+    public float getMaxValue() {
+        return 0.5f;
+    }
+
+    /**
+     * Get the noise levels by promillage for two dimensional noise with this
+     * configuration. The levels are generated on first use and then cached,
+     * also on disk; see {@link PerlinNoiseLevelFinder}. Since the
+     * distribution of the noise does not depend on the seed, they are shared
+     * by all generators with the same type, octaves, lacunarity and gain.
+     *
+     * @return The noise levels for two dimensional noise with this
+     * configuration.
+     */
+    public NoiseLevels getLevels2D() {
+        return PerlinNoiseLevelFinder.getLevels(getLevelsKey(2), (x, y, z) -> getValue(x, y), getMinValue(), getMaxValue());
+    }
+
+    /**
+     * Get the noise levels by promillage for three dimensional noise with
+     * this configuration. The levels are generated on first use and then
+     * cached, also on disk; see {@link PerlinNoiseLevelFinder}. Since the
+     * distribution of the noise does not depend on the seed, they are shared
+     * by all generators with the same type, octaves, lacunarity and gain.
+     *
+     * @return The noise levels for three dimensional noise with this
+     * configuration.
+     */
+    public NoiseLevels getLevels3D() {
+        return PerlinNoiseLevelFinder.getLevels(getLevelsKey(3), this::getValue, getMinValue(), getMaxValue());
+    }
+
+    /**
+     * Generates two dimensional fractal noise.
+     *
+     * @param x The X coordinate of the point for which to determine the noise
+     *     value.
+     * @param y The Y coordinate of the point for which to determine the noise
+     *     value.
+     * @return A noise value between {@link #getMinValue()} and
+     * {@link #getMaxValue()}.
+     */
+    public float getValue(double x, double y) {
+        float value = 0.0f;
+        for (int i = 0; i < generators.length; i++) {
+            final double frequency = frequencies[i];
+            value += amplitudes[i] * shape((float) (generators[i].sampleResult(x * frequency, y * frequency) * FACTOR_2D));
+        }
+        return value;
+    }
+
+    /**
+     * Generates three dimensional fractal noise.
+     *
+     * @param x The X coordinate of the point for which to determine the noise
+     *     value.
+     * @param y The Y coordinate of the point for which to determine the noise
+     *     value.
+     * @param z The Z coordinate of the point for which to determine the noise
+     *     value.
+     * @return A noise value between {@link #getMinValue()} and
+     * {@link #getMaxValue()}.
+     */
+    public float getValue(double x, double y, double z) {
+        float value = 0.0f;
+        for (int i = 0; i < generators.length; i++) {
+            final double frequency = frequencies[i];
+            value += amplitudes[i] * shape((float) (generators[i].sampleResult(x * frequency, y * frequency, z * frequency) * FACTOR_3D));
+        }
+        return value;
+    }
+
+    /**
+     * Generates two dimensional fractal noise for a grid of points in one go.
+     * This is considerably faster than invoking
+     * {@link #getValue(double, double)} for each point. The point for grid
+     * coordinates {@code (i, j)} is {@code (x0 + i * step, y0 + j * step)} and
+     * the noise value for it is stored in {@code out[j * width + i]}.
+     *
+     * <p><strong>Note</strong> that the coordinates for each octave are
+     * calculated from the scaled grid origin and step, so the results may
+     * differ in the least significant bits from those of
+     * {@link #getValue(double, double)}.
+     *
+     * @param out The array in which to store the noise values. Must have room
+     *            for at least {@code width * height} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows.
+     * @param width The number of columns.
+     * @param height The number of rows.
+     */
+    public void getValues(float[] out, double x0, double y0, double step, int width, int height) {
+        final int count = width * height;
+        final float[] octave = new float[count];
+        for (int i = 0; i < count; i++) {
+            out[i] = 0.0f;
+        }
+        for (int i = 0; i < generators.length; i++) {
+            final double frequency = frequencies[i];
+            final float amplitude = amplitudes[i];
+            generators[i].sampleGrid(octave, x0 * frequency, y0 * frequency, step * frequency, width, height);
+            for (int j = 0; j < count; j++) {
+                out[j] += amplitude * shape((float) (octave[j] * FACTOR_2D));
+            }
+        }
+    }
+
+    private String getLevelsKey(int dimensions) {
+        return "fractal-" + type.name().toLowerCase() + "-" + generators.length + "-" + lacunarity + "-" + gain + "-" + dimensions + "d";
+    }
+
+    private float shape(float value) {
+        switch (type) {
+            case FBM:
+                return value;
+            case TURBULENCE:
+                return Math.abs(value);
+            case RIDGED:
+                final float ridge = 0.5f - Math.abs(value);
+                return ridge * ridge * 2.0f;
+            default:
+                throw new InternalError();
+        }
+    }
+
+    private final Type type;
+    private final long seed;
+    private final double lacunarity, gain;
+    private final FastPerlin[] generators;
+    private final double[] frequencies;
+    private final float[] amplitudes;
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The ways in which the octaves can be combined.
+     */
+    public enum Type {
+        /**
+         * Fractional Brownian motion: the weighted sum of the octaves. Ranges
+         * from -0.5 to 0.5.
+         */
+        FBM,
+
+        /**
+         * The weighted sum of the absolute values of the octaves, producing
+         * billowy patterns with sharp creases at the zero crossings. Ranges
+         * from 0.0 to 0.5.
+         */
+        TURBULENCE,
+
+        /**
+         * The weighted sum of the squared inverted absolute values of the
+         * octaves, producing sharp ridges at the zero crossings. Ranges from
+         * 0.0 to 0.5.
+         */
+        RIDGED
+    }
+}
@@ -0,0 +1,101 @@
+package org.pepsoft.util;
+
+import java.util.ArrayDeque;
+
+/**
+ * Evaluates {@link NoiseNode noise graphs} for grids of points. Owns the
+ * scratch buffers for the intermediate results of the nodes, which are reused
+ * for subsequent evaluations, so that evaluating graphs repeatedly for grids
+ * of the same size or smaller does not allocate new buffers.
+ *
+ * <p><strong>Note</strong> that this class is not thread safe. Each thread
+ * should use its own evaluator. Noise nodes themselves may be shared.
+ *
+ * @author pepijn
+ */
+public final class NoiseEvaluator {
+    /**
+     * Evaluate a noise graph for a two dimensional grid of points. The point
+     * for grid coordinates {@code (i, j)} is
+     * {@code (x0 + i * step, y0 + j * step)} and the value for it is stored in
+     * {@code out[j * width + i]}.
+     *
+     * @param node The root node of the graph.
+     * @param out The array in which to store the values. Must have room for at
+     *            least {@code width * height} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows.
+     * @param width The number of columns.
+     * @param height The number of rows.
+     */
+    public void evaluate(NoiseNode node, float[] out, double x0, double y0, double step, int width, int height) {
+        if (out.length < width * height) {
+            throw new IllegalArgumentException("out.length " + out.length + " < " + width + " * " + height);
+        }
+        node.evaluate(this, createGrid(x0, y0, step, width, height), out);
+    }
+
+    Domain createGrid(double x0, double y0, double step, int width, int height) {
+        return new Domain(x0, y0, step, width, height, null, null, width * height);
+    }
+
+    Domain createPoints(double[] xs, double[] ys, int size) {
+        return new Domain(0.0, 0.0, 0.0, 0, 0, xs, ys, size);
+    }
+
+    /**
+     * Get a scratch buffer of at least the specified size. Must be released
+     * with {@link #release(float[])} once it is no longer needed.
+     */
+    float[] acquireFloats(int size) {
+        final float[] buffer = freeFloats.poll();
+        return ((buffer != null) && (buffer.length >= size)) ? buffer : new float[size];
+    }
+
+    void release(float[] buffer) {
+        freeFloats.push(buffer);
+    }
+
+    /**
+     * Get a scratch buffer of at least the specified size. Must be released
+     * with {@link #release(double[])} once it is no longer needed.
+     */
+    double[] acquireDoubles(int size) {
+        final double[] buffer = freeDoubles.poll();
+        return ((buffer != null) && (buffer.length >= size)) ? buffer : new double[size];
+    }
+
+    void release(double[] buffer) {
+        freeDoubles.push(buffer);
+    }
+
+    private final ArrayDeque<float[]> freeFloats = new ArrayDeque<>();
+    private final ArrayDeque<double[]> freeDoubles = new ArrayDeque<>();
+
+    /**
+     * The points for which a node is evaluated: either a regular grid, or an
+     * arbitrary list of points, for instance as the result of warping.
+     */
+    static final class Domain {
+        Domain(double x0, double y0, double step, int width, int height, double[] xs, double[] ys, int size) {
+            this.x0 = x0;
+            this.y0 = y0;
+            this.step = step;
+            this.width = width;
+            this.height = height;
+            this.xs = xs;
+            this.ys = ys;
+            this.size = size;
+        }
+
+        boolean isGrid() {
+            return xs == null;
+        }
+
+        final double x0, y0, step;
+        final int width, height;
+        final double[] xs, ys;
+        final int size;
+    }
+}
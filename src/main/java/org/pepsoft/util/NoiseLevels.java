@@ -0,0 +1,96 @@
+package org.pepsoft.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+import static java.nio.ByteOrder.LITTLE_ENDIAN;
+
+/**
+ * A table of noise levels by promillage for a particular noise configuration:
+ * for each promillage in steps of 0.1 from 0 to 1000 (inclusive) the level
+ * above which (inclusive) that promillage of the noise values lies.
+ *
+ * <p>Tables can be stored in and loaded from a compact binary form consisting
+ * of the 10001 levels as raw little endian floats.
+ *
+ * @see PerlinNoiseLevelFinder
+ */
+public final class NoiseLevels {
+    NoiseLevels(float[] levels) {
+        if (levels.length != LEVEL_COUNT) {
+            throw new IllegalArgumentException("levels.length " + levels.length + " != " + LEVEL_COUNT);
+        }
+        this.levels = levels;
+    }
+
+    public float getLevelForPromillage(int promillage) {
+        return getLevelForPromillage((float) promillage);
+    }
+
+    public float getLevelForPromillage(float promillage) {
+        if ((promillage < 0f) || (promillage > 1000f)) {
+            throw new IllegalArgumentException();
+        }
+        promillage *= 10;
+        if (promillage == (int) promillage) {
+            return levels[(int) promillage];
+        } else {
+            float level1 = levels[(int) promillage];
+            return level1 + (levels[((int) promillage) + 1] - level1) * (promillage - (int) promillage);
+        }
+    }
+
+    /**
+     * Check whether the table is plausible for a value range: all levels lie
+     * in the range and they do not increase with the promillage.
+     */
+    boolean isValid(float minValue, float maxValue) {
+        float previousLevel = Float.POSITIVE_INFINITY;
+        for (float level: levels) {
+            if ((! (level >= minValue)) || (! (level <= maxValue)) || (level > previousLevel)) {
+                return false;
+            }
+            previousLevel = level;
+        }
+        return true;
+    }
+
+    /**
+     * Write the table in its binary form.
+     *
+     * @param out The stream to write the table to. Will not be closed.
+     * @throws IOException If an I/O error occurs writing the table.
+     */
+    public void write(OutputStream out) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(LEVEL_COUNT * 4).order(LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(levels);
+        out.write(buffer.array());
+    }
+
+    /**
+     * Read a table in its binary form.
+     *
+     * @param in The stream to read the table from. Will not be closed.
+     * @return The table.
+     * @throws IOException If an I/O error occurs reading the table, or the
+     * stream does not contain a complete table.
+     */
+    public static NoiseLevels read(InputStream in) throws IOException {
+        final byte[] bytes = in.readNBytes(LEVEL_COUNT * 4);
+        if (bytes.length != LEVEL_COUNT * 4) {
+            throw new IOException("Truncated noise levels table (" + bytes.length + " bytes)");
+        }
+        final float[] levels = new float[LEVEL_COUNT];
+        ByteBuffer.wrap(bytes).order(LITTLE_ENDIAN).asFloatBuffer().get(levels);
+        return new NoiseLevels(levels);
+    }
+
+    private final float[] levels;
+
+    /**
+     * The number of levels in a table.
+     */
+    public static final int LEVEL_COUNT = 10001;
+}
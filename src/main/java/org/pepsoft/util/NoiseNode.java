@@ -0,0 +1,365 @@
+package org.pepsoft.util;
+
+import org.pepsoft.util.NoiseEvaluator.Domain;
+
+import java.util.Arrays;
+
+/**
+ * A node of a noise graph: a composition of noise sources and operations on
+ * them, such as domain warping, which is evaluated for entire grids of points
+ * at once by a {@link NoiseEvaluator}. Each node is evaluated for all points
+ * in one pass into a {@code float} array before the next node is evaluated,
+ * so that a complex stack of noise becomes a series of simple array loops
+ * rather than a tree of nested calls per point. Nodes which are sampled on a
+ * regular grid, which is the case unless they are downstream of a warp, use
+ * the bulk grid methods of the generators.
+ *
+ * <p>Nodes are immutable and can be shared between graphs and threads. They
+ * are created with the static factory methods and combined with the instance
+ * methods, for instance:
+ *
+ * <pre>NoiseNode node = NoiseNode.perlin(perlinNoise).scale(50)
+ *         .warp(NoiseNode.perlin(warpX).scale(20), NoiseNode.perlin(warpY).scale(20), 10)
+ *         .add(NoiseNode.worley(worleyNoise).scale(100).multiply(0.2f))
+ *         .clamp(-0.5f, 0.5f);</pre>
+ *
+ * @author pepijn
+ */
+public abstract class NoiseNode {
+    NoiseNode() {
+        // Only subclasses in this package
+    }
+
+    /**
+     * Create a source node for two dimensional Perlin noise, with values
+     * between -0.5 and 0.5.
+     *
+     * @param noise The noise generator.
+     * @return The source node.
+     */
+    public static NoiseNode perlin(PerlinNoise noise) {
+        return new NoiseNode() {
+            @Override
+            void evaluate(NoiseEvaluator evaluator, Domain domain, float[] out) {
+                if (domain.isGrid()) {
+                    noise.getPerlinNoiseGrid(out, domain.x0, domain.y0, domain.step, domain.width, domain.height);
+                } else {
+                    final double[] xs = domain.xs, ys = domain.ys;
+                    for (int i = domain.size - 1; i >= 0; i--) {
+                        out[i] = noise.getPerlinNoise(xs[i], ys[i]);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Create a source node for two dimensional simplex noise, with values
+     * between -1.0 and 1.0.
+     *
+     * @param noise The noise generator.
+     * @return The source node.
+     */
+    public static NoiseNode simplex(FastSimplex noise) {
+        return new NoiseNode() {
+            @Override
+            void evaluate(NoiseEvaluator evaluator, Domain domain, float[] out) {
+                if (domain.isGrid()) {
+                    noise.sampleGrid(out, domain.x0, domain.y0, domain.step, domain.width, domain.height);
+                } else {
+                    final double[] xs = domain.xs, ys = domain.ys;
+                    for (int i = domain.size - 1; i >= 0; i--) {
+                        out[i] = noise.sampleResult(xs[i], ys[i]);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Create a source node for the distance to the nearest feature point of
+     * cellular noise.
+     *
+     * @param noise The noise generator.
+     * @return The source node.
+     */
+    public static NoiseNode worley(WorleyNoise noise) {
+        return new NoiseNode() {
+            @Override
+            void evaluate(NoiseEvaluator evaluator, Domain domain, float[] out) {
+                if (domain.isGrid()) {
+                    noise.sampleGrid(out, null, domain.x0, domain.y0, domain.step, domain.width, domain.height);
+                } else {
+                    final double[] xs = domain.xs, ys = domain.ys;
+                    for (int i = domain.size - 1; i >= 0; i--) {
+                        out[i] = noise.getF1(xs[i], ys[i]);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Create a source node for an arbitrary two dimensional function, which
+     * will be invoked for each point.
+     *
+     * @param source The function.
+     * @return The source node.
+     */
+    public static NoiseNode source(Source source) {
+        return new NoiseNode() {
+            @Override
+            void evaluate(NoiseEvaluator evaluator, Domain domain, float[] out) {
+                if (domain.isGrid()) {
+                    for (int j = 0, index = 0; j < domain.height; j++) {
+                        final double y = domain.y0 + j * domain.step;
+                        for (int i = 0; i < domain.width; i++, index++) {
+                            out[index] = source.getValue(domain.x0 + i * domain.step, y);
+                        }
+                    }
+                } else {
+                    final double[] xs = domain.xs, ys = domain.ys;
+                    for (int i = domain.size - 1; i >= 0; i--) {
+                        out[i] = source.getValue(xs[i], ys[i]);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Create a node with the same value everywhere.
+     *
+     * @param value The value.
+     * @return The constant node.
+     */
+    public static NoiseNode constant(float value) {
+        return new NoiseNode() {
+            @Override
+            void evaluate(NoiseEvaluator evaluator, Domain domain, float[] out) {
+                Arrays.fill(out, 0, domain.size, value);
+            }
+        };
+    }
+
+    /**
+     * Scale this node up, by dividing the coordinates at which it is sampled
+     * by a factor.
+     *
+     * @param scale The factor by which to divide the coordinates.
+     * @return The scaled node.
+     */
+    public NoiseNode scale(double scale) {
+        final NoiseNode source = this;
+        return new NoiseNode() {
+            @Override
+            void evaluate(NoiseEvaluator evaluator, Domain domain, float[] out) {
+                if (domain.isGrid()) {
+                    source.evaluate(evaluator, evaluator.createGrid(domain.x0 / scale, domain.y0 / scale, domain.step / scale, domain.width, domain.height), out);
+                } else {
+                    final int size = domain.size;
+                    final double[] xs = evaluator.acquireDoubles(size), ys = evaluator.acquireDoubles(size);
+                    for (int i = 0; i < size; i++) {
+                        xs[i] = domain.xs[i] / scale;
+                        ys[i] = domain.ys[i] / scale;
+                    }
+                    source.evaluate(evaluator, evaluator.createPoints(xs, ys, size), out);
+                    evaluator.release(ys);
+                    evaluator.release(xs);
+                }
+            }
+        };
+    }
+
+    /**
+     * Warp the domain of this node, by offsetting the coordinates at which it
+     * is sampled by the values of two other nodes, sampled at the original
+     * coordinates.
+     *
+     * @param offsetX The node providing the offsets along the X axis.
+     * @param offsetY The node providing the offsets along the Y axis.
+     * @param amount The factor by which to multiply the offsets.
+     * @return The warped node.
+     */
+    public NoiseNode warp(NoiseNode offsetX, NoiseNode offsetY, float amount) {
+        final NoiseNode source = this;
+        return new NoiseNode() {
+            @Override
+            void evaluate(NoiseEvaluator evaluator, Domain domain, float[] out) {
+                final int size = domain.size;
+                final float[] dx = evaluator.acquireFloats(size), dy = evaluator.acquireFloats(size);
+                offsetX.evaluate(evaluator, domain, dx);
+                offsetY.evaluate(evaluator, domain, dy);
+                final double[] xs = evaluator.acquireDoubles(size), ys = evaluator.acquireDoubles(size);
+                if (domain.isGrid()) {
+                    for (int j = 0, index = 0; j < domain.height; j++) {
+                        final double y = domain.y0 + j * domain.step;
+                        for (int i = 0; i < domain.width; i++, index++) {
+                            xs[index] = domain.x0 + i * domain.step + amount * dx[index];
+                            ys[index] = y + amount * dy[index];
+                        }
+                    }
+                } else {
+                    for (int i = 0; i < size; i++) {
+                        xs[i] = domain.xs[i] + amount * dx[i];
+                        ys[i] = domain.ys[i] + amount * dy[i];
+                    }
+                }
+                evaluator.release(dy);
+                evaluator.release(dx);
+                source.evaluate(evaluator, evaluator.createPoints(xs, ys, size), out);
+                evaluator.release(ys);
+                evaluator.release(xs);
+            }
+        };
+    }
+
+    /**
+     * Add the values of another node to the values of this node.
+     *
+     * @param other The node to add.
+     * @return The sum node.
+     */
+    public NoiseNode add(NoiseNode other) {
+        final NoiseNode source = this;
+        return new NoiseNode() {
+            @Override
+            void evaluate(NoiseEvaluator evaluator, Domain domain, float[] out) {
+                source.evaluate(evaluator, domain, out);
+                final float[] values = evaluator.acquireFloats(domain.size);
+                other.evaluate(evaluator, domain, values);
+                for (int i = domain.size - 1; i >= 0; i--) {
+                    out[i] += values[i];
+                }
+                evaluator.release(values);
+            }
+        };
+    }
+
+    /**
+     * Add a constant to the values of this node.
+     *
+     * @param value The value to add.
+     * @return The sum node.
+     */
+    public NoiseNode add(float value) {
+        final NoiseNode source = this;
+        return new NoiseNode() {
+            @Override
+            void evaluate(NoiseEvaluator evaluator, Domain domain, float[] out) {
+                source.evaluate(evaluator, domain, out);
+                for (int i = domain.size - 1; i >= 0; i--) {
+                    out[i] += value;
+                }
+            }
+        };
+    }
+
+    /**
+     * Multiply the values of this node by the values of another node.
+     *
+     * @param other The node by which to multiply.
+     * @return The product node.
+     */
+    public NoiseNode multiply(NoiseNode other) {
+        final NoiseNode source = this;
+        return new NoiseNode() {
+            @Override
+            void evaluate(NoiseEvaluator evaluator, Domain domain, float[] out) {
+                source.evaluate(evaluator, domain, out);
+                final float[] values = evaluator.acquireFloats(domain.size);
+                other.evaluate(evaluator, domain, values);
+                for (int i = domain.size - 1; i >= 0; i--) {
+                    out[i] *= values[i];
+                }
+                evaluator.release(values);
+            }
+        };
+    }
+
+    /**
+     * Multiply the values of this node by a constant.
+     *
+     * @param factor The factor by which to multiply.
+     * @return The product node.
+     */
+    public NoiseNode multiply(float factor) {
+        final NoiseNode source = this;
+        return new NoiseNode() {
+            @Override
+            void evaluate(NoiseEvaluator evaluator, Domain domain, float[] out) {
+                source.evaluate(evaluator, domain, out);
+                for (int i = domain.size - 1; i >= 0; i--) {
+                    out[i] *= factor;
+                }
+            }
+        };
+    }
+
+    /**
+     * Clamp the values of this node to a range.
+     *
+     * @param min The lowest value.
+     * @param max The highest value.
+     * @return The clamped node.
+     */
+    public NoiseNode clamp(float min, float max) {
+        final NoiseNode source = this;
+        return new NoiseNode() {
+            @Override
+            void evaluate(NoiseEvaluator evaluator, Domain domain, float[] out) {
+                source.evaluate(evaluator, domain, out);
+                for (int i = domain.size - 1; i >= 0; i--) {
+                    out[i] = Math.min(Math.max(out[i], min), max);
+                }
+            }
+        };
+    }
+
+    /**
+     * Threshold the values of this node: replace values at or above a level
+     * with 1.0 and values below it with 0.0.
+     *
+     * @param level The level.
+     * @return The threshold node.
+     */
+    public NoiseNode threshold(float level) {
+        final NoiseNode source = this;
+        return new NoiseNode() {
+            @Override
+            void evaluate(NoiseEvaluator evaluator, Domain domain, float[] out) {
+                source.evaluate(evaluator, domain, out);
+                for (int i = domain.size - 1; i >= 0; i--) {
+                    out[i] = (out[i] >= level) ? 1.0f : 0.0f;
+                }
+            }
+        };
+    }
+
+    /**
+     * Evaluate this node for all points of a domain.
+     *
+     * @param evaluator The evaluator from which to obtain scratch buffers.
+     *                  Buffers must be released again before returning.
+     * @param domain The points for which to evaluate the node.
+     * @param out The array in which to store the values, in the order of the
+     *            points of the domain.
+     */
+    abstract void evaluate(NoiseEvaluator evaluator, Domain domain, float[] out);
+
+    /**
+     * An arbitrary two dimensional function which can be used as a source of
+     * values in a noise graph.
+     */
+    @FunctionalInterface
+    public interface Source {
+        /**
+         * Get the value at a point.
+         *
+         * @param x The X coordinate of the point.
+         * @param y The Y coordinate of the point.
+         * @return The value at the point.
+         */
+        float getValue(double x, double y);
+    }
+}
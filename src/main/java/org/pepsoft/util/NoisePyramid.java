@@ -0,0 +1,230 @@
+package org.pepsoft.util;
+
+/**
+ * A mipmap pyramid of two dimensional noise, for rendering zoomed out views
+ * without sampling the noise at full resolution for every pixel. Level 0
+ * contains the noise values themselves; each point of level {@code n + 1}
+ * covers a square of two by two points of level {@code n}, and contains the
+ * average, minimum and maximum of the values covered by it. A point
+ * {@code (x, y)} of level {@code n} therefore summarises the level 0 points
+ * from {@code (x << n, y << n)} (inclusive) to
+ * {@code ((x + 1) << n, (y + 1) << n)} (exclusive).
+ *
+ * <p>Each level is divided into square tiles of {@link #TILE_SIZE} by
+ * {@code TILE_SIZE} points, which are built lazily when first requested, from
+ * the tiles of the level below, and are stored as primitive arrays. The tiles
+ * of all levels share a memory budget, and are evicted in least recently used
+ * order when the total size exceeds it. Note that building a tile of level
+ * {@code n} requires the noise for all the {@code 4^n} level 0 tiles it
+ * covers, so the first request for a tile of a high level is expensive, but
+ * tiles of all intermediate levels are cached along the way. For that reason
+ * the number of levels is limited to {@link #MAX_LEVEL}. The hit and miss
+ * counts include the tiles requested internally to build higher levels.
+ *
+ * <p>This class is thread safe.
+ */
+public final class NoisePyramid extends AbstractTileCache<NoisePyramid.Tile> {
+    /**
+     * Create a new noise pyramid.
+     *
+     * @param sampler The sampler with which to sample the level 0 tiles. Will
+     *                always be invoked with a tile size of {@link #TILE_SIZE}.
+     * @param maxBytes The memory budget of the pyramid in bytes.
+     */
+    public NoisePyramid(NoiseTileCache.TileSampler sampler, long maxBytes) {
+        super(maxBytes);
+        this.sampler = sampler;
+    }
+
+    /**
+     * Create a pyramid of two dimensional Perlin noise. The level 0 values of
+     * each tile are identical to those produced by
+     * {@link PerlinNoise#getPerlinNoiseGrid(float[], double, double, double, int, int)}
+     * with origin {@code (tileX * TILE_SIZE / scale, tileY * TILE_SIZE / scale)}
+     * and step {@code 1 / scale}. Since the grid accumulates the step rather
+     * than dividing each coordinate by the scale, they may differ in the
+     * lowest bits (by up to about {@code 1e-6}) from the values produced by
+     * {@link PerlinNoise#getPerlinNoise(double, double)} for
+     * {@code (x / scale, y / scale)}.
+     *
+     * @param noise The noise generator.
+     * @param scale The scale of the noise, by which the point coordinates are
+     *              divided.
+     * @param maxBytes The memory budget of the pyramid in bytes.
+     * @return The noise pyramid.
+     */
+    public static NoisePyramid forPerlinNoise(PerlinNoise noise, double scale, long maxBytes) {
+        return new NoisePyramid(NoiseTileCache.TileSampler.forPerlinNoise(noise, scale), maxBytes);
+    }
+
+    /**
+     * Create a pyramid of the values of a {@link RandomField} at Z coordinate
+     * zero. The level 0 values are identical to those produced by
+     * {@link RandomField#getValue(int, int)}.
+     *
+     * @param field The random field.
+     * @param maxBytes The memory budget of the pyramid in bytes.
+     * @return The noise pyramid.
+     */
+    public static NoisePyramid forRandomField(RandomField field, long maxBytes) {
+        return new NoisePyramid(NoiseTileCache.TileSampler.forRandomField(field), maxBytes);
+    }
+
+    /**
+     * Get a tile of a level of the pyramid, building it if necessary.
+     *
+     * @param level The level. Must be between 0 and {@link #MAX_LEVEL}
+     *              (inclusive).
+     * @param tileX The X coordinate of the tile, in tiles.
+     * @param tileY The Y coordinate of the tile, in tiles.
+     * @return The tile.
+     */
+    public Tile getTile(int level, int tileX, int tileY) {
+        if ((level < 0) || (level > MAX_LEVEL)) {
+            throw new IllegalArgumentException("level " + level);
+        }
+        final TileKey key = new TileKey(NoisePyramid.class, 0L, 1.0, level, tileX, tileY, TILE_SIZE);
+        Tile tile = getIfPresent(key);
+        if (tile == null) {
+            // Another thread may be building the same tile concurrently, but
+            // that is harmless; both will produce the same values
+            tile = (level == 0) ? sampleTile(tileX, tileY) : buildTile(level, tileX, tileY);
+            put(key, tile);
+        }
+        return tile;
+    }
+
+    /**
+     * Get the average of the level 0 values covered by a point of a level.
+     * For reading many points of the same tile it is more efficient to use
+     * {@link #getTile(int, int, int)}.
+     *
+     * @param level The level.
+     * @param x The X coordinate of the point in the level.
+     * @param y The Y coordinate of the point in the level.
+     * @return The average of the level 0 values covered by the point.
+     */
+    public float getAverage(int level, int x, int y) {
+        return getTile(level, x >> TILE_SIZE_BITS, y >> TILE_SIZE_BITS).averages[index(x, y)];
+    }
+
+    /**
+     * Get the minimum of the level 0 values covered by a point of a level.
+     *
+     * @param level The level.
+     * @param x The X coordinate of the point in the level.
+     * @param y The Y coordinate of the point in the level.
+     * @return The minimum of the level 0 values covered by the point.
+     */
+    public float getMinimum(int level, int x, int y) {
+        return getTile(level, x >> TILE_SIZE_BITS, y >> TILE_SIZE_BITS).minima[index(x, y)];
+    }
+
+    /**
+     * Get the maximum of the level 0 values covered by a point of a level.
+     *
+     * @param level The level.
+     * @param x The X coordinate of the point in the level.
+     * @param y The Y coordinate of the point in the level.
+     * @return The maximum of the level 0 values covered by the point.
+     */
+    public float getMaximum(int level, int x, int y) {
+        return getTile(level, x >> TILE_SIZE_BITS, y >> TILE_SIZE_BITS).maxima[index(x, y)];
+    }
+
+    @Override
+    int getByteSize(Tile tile) {
+        return tile.getByteSize();
+    }
+
+    private Tile sampleTile(int tileX, int tileY) {
+        final float[] values = new float[TILE_SIZE * TILE_SIZE];
+        sampler.sampleTile(values, tileX * TILE_SIZE, tileY * TILE_SIZE, TILE_SIZE);
+        // At level 0 each point covers only itself
+        return new Tile(values, values, values);
+    }
+
+    private Tile buildTile(int level, int tileX, int tileY) {
+        final float[] averages = new float[TILE_SIZE * TILE_SIZE], minima = new float[TILE_SIZE * TILE_SIZE], maxima = new float[TILE_SIZE * TILE_SIZE];
+        final int half = TILE_SIZE / 2;
+        // Each quadrant of the tile is built from one tile of the level below
+        for (int quadrantY = 0; quadrantY < 2; quadrantY++) {
+            for (int quadrantX = 0; quadrantX < 2; quadrantX++) {
+                final Tile source = getTile(level - 1, tileX * 2 + quadrantX, tileY * 2 + quadrantY);
+                final float[] sourceAverages = source.averages, sourceMinima = source.minima, sourceMaxima = source.maxima;
+                for (int y = 0; y < half; y++) {
+                    int index = (quadrantY * half + y) * TILE_SIZE + quadrantX * half;
+                    int sourceIndex = y * 2 * TILE_SIZE;
+                    for (int x = 0; x < half; x++, index++, sourceIndex += 2) {
+                        final int s00 = sourceIndex, s01 = sourceIndex + 1, s10 = sourceIndex + TILE_SIZE, s11 = sourceIndex + TILE_SIZE + 1;
+                        averages[index] = (sourceAverages[s00] + sourceAverages[s01] + sourceAverages[s10] + sourceAverages[s11]) * 0.25f;
+                        minima[index] = Math.min(Math.min(sourceMinima[s00], sourceMinima[s01]), Math.min(sourceMinima[s10], sourceMinima[s11]));
+                        maxima[index] = Math.max(Math.max(sourceMaxima[s00], sourceMaxima[s01]), Math.max(sourceMaxima[s10], sourceMaxima[s11]));
+                    }
+                }
+            }
+        }
+        return new Tile(averages, minima, maxima);
+    }
+
+    private static int index(int x, int y) {
+        return (y & TILE_SIZE_MASK) * TILE_SIZE + (x & TILE_SIZE_MASK);
+    }
+
+    private final NoiseTileCache.TileSampler sampler;
+
+    /**
+     * The size in points along each axis of the tiles of all levels.
+     */
+    public static final int TILE_SIZE = 256;
+
+    /**
+     * The highest supported level. Building a tile of level {@code n} from
+     * scratch requires {@code 4^n} level 0 tiles, so this is limited to a
+     * level for which that is still practical: a level 4 tile covers 256
+     * level 0 tiles, or about 16.8 million samples.
+     */
+    public static final int MAX_LEVEL = 4;
+
+    private static final int TILE_SIZE_BITS = 8, TILE_SIZE_MASK = TILE_SIZE - 1;
+
+    /**
+     * Approximate overhead in bytes of a cached tile, in addition to the
+     * values themselves.
+     */
+    private static final int TILE_OVERHEAD = 160;
+
+    /**
+     * A tile of one level of a {@link NoisePyramid}. The values for point
+     * {@code (x, y)} of the tile are stored at index {@code y * TILE_SIZE + x}
+     * of the arrays.
+     *
+     * <p><strong>Note</strong> that the arrays are shared and must not be
+     * modified. For level 0 tiles the three arrays are the same array.
+     */
+    public static final class Tile {
+        Tile(float[] averages, float[] minima, float[] maxima) {
+            this.averages = averages;
+            this.minima = minima;
+            this.maxima = maxima;
+        }
+
+        public float[] getAverages() {
+            return averages;
+        }
+
+        public float[] getMinima() {
+            return minima;
+        }
+
+        public float[] getMaxima() {
+            return maxima;
+        }
+
+        int getByteSize() {
+            return ((averages == minima) ? 1 : 3) * averages.length * 4 + TILE_OVERHEAD;
+        }
+
+        private final float[] averages, minima, maxima;
+    }
+}
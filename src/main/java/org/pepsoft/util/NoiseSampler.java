@@ -0,0 +1,70 @@
+package org.pepsoft.util;
+
+import static org.pepsoft.util.PerlinNoise.FACTOR_2D;
+import static org.pepsoft.util.PerlinNoise.FACTOR_3D;
+
+/**
+ * A handle for sampling Perlin noise from one thread, obtained from
+ * {@link PerlinNoise#createSampler()}. It owns the scratch buffers for bulk
+ * sampling, so that, unlike the bulk methods of {@link PerlinNoise} itself,
+ * it does not allocate any memory once the buffers are large enough. It also
+ * remembers the per-column lattice data of the last grid it sampled, so that
+ * sampling several grids with the same columns (for instance vertically
+ * adjacent tiles) skips recalculating it.
+ *
+ * <p>The sampler is bound to the seed the generator had when the sampler was
+ * created; changing the seed of the generator afterwards does not affect it.
+ * The results are identical to those of the corresponding methods of
+ * {@link PerlinNoise}.
+ *
+ * <p><strong>Note</strong> that this class is not thread safe. Each thread
+ * should obtain its own sampler.
+ */
+public final class NoiseSampler {
+    NoiseSampler(FastPerlin fastPerlin) {
+        this.fastPerlin = fastPerlin;
+    }
+
+    /**
+     * Generates two dimensional noise. See
+     * {@link PerlinNoise#getPerlinNoise(double, double)}.
+     */
+    public float getPerlinNoise(double x, double y) {
+        return (float) (fastPerlin.sampleResult(x, y) * FACTOR_2D);
+    }
+
+    /**
+     * Generates three dimensional noise. See
+     * {@link PerlinNoise#getPerlinNoise(double, double, double)}.
+     */
+    public float getPerlinNoise(double x, double y, double z) {
+        return (float) (fastPerlin.sampleResult(x, y, z) * FACTOR_3D);
+    }
+
+    /**
+     * Generates two dimensional noise for a grid of points in one go. See
+     * {@link PerlinNoise#getPerlinNoiseGrid(float[], double, double, double, int, int)}.
+     */
+    public void getPerlinNoiseGrid(float[] out, double x0, double y0, double step, int width, int height) {
+        fastPerlin.initColumns(columns, x0, step, 0, width);
+        fastPerlin.sampleRows(out, 0, width, columns, y0, step, 0, height);
+        for (int i = width * height - 1; i >= 0; i--) {
+            out[i] = (float) (out[i] * FACTOR_2D);
+        }
+    }
+
+    /**
+     * Generates three dimensional noise for a volume of points in one go. See
+     * {@link PerlinNoise#getPerlinNoiseVolume(float[], double, double, double, double, int, int, int)}.
+     */
+    public void getPerlinNoiseVolume(float[] out, double x0, double y0, double z0, double step, int width, int height, int depth) {
+        fastPerlin.initColumns(columns, x0, step, 0, width);
+        fastPerlin.sampleLayers(out, columns, y0, z0, step, height, depth);
+        for (int i = width * height * depth - 1; i >= 0; i--) {
+            out[i] = (float) (out[i] * FACTOR_3D);
+        }
+    }
+
+    private final FastPerlin fastPerlin;
+    private final FastPerlin.Columns columns = new FastPerlin.Columns();
+}
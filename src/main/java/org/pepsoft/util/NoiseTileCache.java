@@ -0,0 +1,180 @@
+package org.pepsoft.util;
+
+import se.liu.itn.stegu.SimplexNoise;
+
+/**
+ * A cache of square tiles of precomputed two dimensional noise values, for
+ * noise which is sampled for the same tiles over and over, for instance while
+ * panning a view or re-rendering after an undo. Tiles are keyed by the type
+ * and seed of the generator, the scale, the tile coordinates and the tile
+ * size, and are evicted in least recently used order when the total size
+ * exceeds the memory budget.
+ *
+ * <p>The tile with coordinates {@code (tileX, tileY)} covers the points from
+ * {@code (tileX * tileSize, tileY * tileSize)} (inclusive) to
+ * {@code ((tileX + 1) * tileSize, (tileY + 1) * tileSize)} (exclusive). The
+ * value for point {@code (x, y)} of the tile is stored at index
+ * {@code y * tileSize + x} of the array.
+ *
+ * <p><strong>Note</strong> that the returned arrays are shared and must not be
+ * modified. This class is thread safe.
+ */
+public final class NoiseTileCache extends AbstractTileCache<float[]> {
+    /**
+     * Create a new tile cache.
+     *
+     * @param maxBytes The memory budget of the cache in bytes.
+     */
+    public NoiseTileCache(long maxBytes) {
+        super(maxBytes);
+    }
+
+    /**
+     * Get a tile of two dimensional Perlin noise. The values are identical to
+     * those produced by
+     * {@link PerlinNoise#getPerlinNoiseGrid(float[], double, double, double, int, int)}
+     * with origin {@code (tileX * tileSize / scale, tileY * tileSize / scale)}
+     * and step {@code 1 / scale}.
+     *
+     * @param noise The noise generator.
+     * @param scale The scale of the noise, by which the point coordinates are
+     *              divided.
+     * @param tileX The X coordinate of the tile.
+     * @param tileY The Y coordinate of the tile.
+     * @param tileSize The size of the tile in points along each axis.
+     * @return The tile of noise values.
+     */
+    public float[] getTile(PerlinNoise noise, double scale, int tileX, int tileY, int tileSize) {
+        return getTile(PerlinNoise.class, noise.getSeed(), scale, 0, tileX, tileY, tileSize, TileSampler.forPerlinNoise(noise, scale));
+    }
+
+    /**
+     * Get a tile of values from a {@link RandomField} at Z coordinate zero.
+     * The values are identical to those produced by
+     * {@link RandomField#getValue(int, int)}.
+     *
+     * @param field The random field.
+     * @param tileX The X coordinate of the tile.
+     * @param tileY The Y coordinate of the tile.
+     * @param tileSize The size of the tile in points along each axis.
+     * @return The tile of values.
+     */
+    public float[] getTile(RandomField field, int tileX, int tileY, int tileSize) {
+        return getTile(RandomField.class, field.getSeed(), field.getScale(), field.getBits(), tileX, tileY, tileSize, TileSampler.forRandomField(field));
+    }
+
+    /**
+     * Get a tile of two dimensional simplex noise. The values are identical to
+     * those produced by {@link SimplexNoise#noise(double, double)} for
+     * {@code (x / scale, y / scale)}, rounded to {@code float}.
+     *
+     * @param noise The noise generator.
+     * @param scale The scale of the noise, by which the point coordinates are
+     *              divided.
+     * @param tileX The X coordinate of the tile.
+     * @param tileY The Y coordinate of the tile.
+     * @param tileSize The size of the tile in points along each axis.
+     * @return The tile of noise values.
+     */
+    public float[] getTile(SimplexNoise noise, double scale, int tileX, int tileY, int tileSize) {
+        return getTile(SimplexNoise.class, noise.getSeed(), scale, 0, tileX, tileY, tileSize, (out, x0, y0, size) -> {
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    out[y * size + x] = (float) noise.noise((x0 + x) / scale, (y0 + y) / scale);
+                }
+            }
+        });
+    }
+
+    /**
+     * Get a tile of values from an arbitrary generator.
+     *
+     * @param generatorType The type of generator. Together with the seed,
+     *                      scale and variant this must uniquely identify the
+     *                      values produced by the sampler.
+     * @param seed The seed of the generator.
+     * @param scale The scale of the generator.
+     * @param variant Any other parameter which influences the values produced
+     *                by the sampler, or zero if there is none.
+     * @param tileX The X coordinate of the tile.
+     * @param tileY The Y coordinate of the tile.
+     * @param tileSize The size of the tile in points along each axis.
+     * @param sampler The sampler with which to fill the tile if it is not
+     *                cached yet.
+     * @return The tile of values.
+     */
+    public float[] getTile(Class<?> generatorType, long seed, double scale, int variant, int tileX, int tileY, int tileSize, TileSampler sampler) {
+        final TileKey key = new TileKey(generatorType, seed, scale, variant, tileX, tileY, tileSize);
+        float[] tile = getIfPresent(key);
+        if (tile == null) {
+            // Another thread may be sampling the same tile concurrently, but
+            // that is harmless; both will produce the same values
+            tile = new float[tileSize * tileSize];
+            sampler.sampleTile(tile, tileX * tileSize, tileY * tileSize, tileSize);
+            put(key, tile);
+        }
+        return tile;
+    }
+
+    @Override
+    int getByteSize(float[] tile) {
+        return tile.length * 4 + TILE_OVERHEAD;
+    }
+
+    /**
+     * Approximate overhead in bytes of a cached tile, in addition to the
+     * values themselves.
+     */
+    private static final int TILE_OVERHEAD = 128;
+
+    /**
+     * A sampler of tiles of values.
+     */
+    @FunctionalInterface
+    public interface TileSampler {
+        /**
+         * Sample a tile.
+         *
+         * @param out The array in which to store the values. The value for
+         *            point {@code (x0 + x, y0 + y)} must be stored at index
+         *            {@code y * tileSize + x}.
+         * @param x0 The X coordinate of the first column of the tile.
+         * @param y0 The Y coordinate of the first row of the tile.
+         * @param tileSize The size of the tile in points along each axis.
+         */
+        void sampleTile(float[] out, int x0, int y0, int tileSize);
+
+        /**
+         * Create a sampler of two dimensional Perlin noise, which samples
+         * tiles with
+         * {@link PerlinNoise#getPerlinNoiseGrid(float[], double, double, double, int, int)}
+         * with origin {@code (x0 / scale, y0 / scale)} and step
+         * {@code 1 / scale}.
+         *
+         * @param noise The noise generator.
+         * @param scale The scale of the noise, by which the point coordinates
+         *              are divided.
+         * @return The sampler.
+         */
+        static TileSampler forPerlinNoise(PerlinNoise noise, double scale) {
+            return (out, x0, y0, size) -> noise.getPerlinNoiseGrid(out, x0 / scale, y0 / scale, 1 / scale, size, size);
+        }
+
+        /**
+         * Create a sampler of the values of a {@link RandomField} at Z
+         * coordinate zero.
+         *
+         * @param field The random field.
+         * @return The sampler.
+         */
+        static TileSampler forRandomField(RandomField field) {
+            return (out, x0, y0, size) -> {
+                final int[] values = new int[size * size];
+                field.getValues(values, x0, y0, 0, size, size);
+                for (int i = 0; i < values.length; i++) {
+                    out[i] = values[i];
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.pepsoft.util;
+
+import org.pepsoft.util.ProgressReceiver.OperationCancelled;
+
+import java.io.Serial;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Samples a large two dimensional grid in parallel by dividing it into square
+ * tiles and sampling those as separate tasks on a {@link ForkJoinPool}. The
+ * tiles are small enough for their output and the per-column data of the
+ * noise generators to stay in the CPU caches.
+ *
+ * <p>Since the noise generators calculate the coordinates of each point from
+ * its global column and row indices the results are identical to sampling the
+ * grid sequentially.
+ *
+ * @author pepijn
+ */
+final class ParallelGridSampler {
+    private ParallelGridSampler() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Sample a grid in parallel.
+     *
+     * @param out The array in which to store the results. Must have room for
+     *            at least {@code width * height} values.
+     * @param width The number of columns of the grid.
+     * @param height The number of rows of the grid.
+     * @param regionSampler The sampler with which to sample the tiles.
+     * @param pool The pool on which to run the tasks, or {@code null} to use
+     *             the common pool.
+     * @param progressReceiver The progress receiver to which to report
+     *                         progress. May be {@code null}. Does not need to
+     *                         be thread safe.
+     * @throws OperationCancelled If the progress receiver indicated that the
+     *     operation should be cancelled. Tiles which were already being sampled
+     *     are finished, but no new tiles are started.
+     */
+    static void sampleGrid(float[] out, int width, int height, RegionSampler regionSampler, ForkJoinPool pool, ProgressReceiver progressReceiver) throws OperationCancelled {
+        if ((width < 0) || (height < 0)) {
+            throw new IllegalArgumentException("width " + width + " or height " + height + " negative");
+        } else if (out.length < (long) width * height) {
+            // Calculated as a long so that it cannot overflow
+            throw new IllegalArgumentException("out.length " + out.length + " < " + width + " * " + height);
+        }
+        final int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE, tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        final Job job = new Job(out, width, height, tilesX, tilesX * tilesY, regionSampler, progressReceiver);
+        if (job.tileCount == 0) {
+            return;
+        }
+        try {
+            ((pool != null) ? pool : ForkJoinPool.commonPool()).invoke(new TileRange(job, 0, job.tileCount));
+        } catch (CancelledException e) {
+            throw e.operationCancelled;
+        }
+        if (progressReceiver != null) {
+            progressReceiver.setProgress(1.0f);
+        }
+    }
+
+    /**
+     * The size in points of the sides of the tiles into which grids are
+     * divided.
+     */
+    static final int TILE_SIZE = 256;
+
+    /**
+     * A sampler of a rectangular region of a grid.
+     */
+    @FunctionalInterface
+    interface RegionSampler {
+        /**
+         * Sample a region of the grid. The result for grid coordinates
+         * {@code (col0 + i, row0 + j)} must be stored in
+         * {@code out[offset + j * stride + i]}.
+         */
+        void sampleRegion(float[] out, int offset, int stride, int col0, int row0, int width, int height);
+    }
+
+    static final class Job {
+        Job(float[] out, int width, int height, int tilesX, int tileCount, RegionSampler regionSampler, ProgressReceiver progressReceiver) {
+            this.out = out;
+            this.width = width;
+            this.height = height;
+            this.tilesX = tilesX;
+            this.tileCount = tileCount;
+            this.regionSampler = regionSampler;
+            this.progressReceiver = progressReceiver;
+        }
+
+        void sampleTile(int tile) {
+            if (progressReceiver != null) {
+                try {
+                    synchronized (progressReceiver) {
+                        progressReceiver.checkForCancellation();
+                    }
+                } catch (OperationCancelled e) {
+                    throw new CancelledException(e);
+                }
+            }
+            final int col0 = (tile % tilesX) * TILE_SIZE, row0 = (tile / tilesX) * TILE_SIZE;
+            regionSampler.sampleRegion(out, row0 * width + col0, width, col0, row0, Math.min(TILE_SIZE, width - col0), Math.min(TILE_SIZE, height - row0));
+            final int done = tilesDone.incrementAndGet();
+            if ((progressReceiver != null) && (done < tileCount)) {
+                try {
+                    synchronized (progressReceiver) {
+                        progressReceiver.setProgress((float) done / tileCount);
+                    }
+                } catch (OperationCancelled e) {
+                    throw new CancelledException(e);
+                }
+            }
+        }
+
+        final float[] out;
+        final int width, height, tilesX, tileCount;
+        final RegionSampler regionSampler;
+        final ProgressReceiver progressReceiver;
+        final AtomicInteger tilesDone = new AtomicInteger();
+    }
+
+    static final class TileRange extends RecursiveAction {
+        TileRange(Job job, int from, int to) {
+            this.job = job;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new TileRange(job, from, middle), new TileRange(job, middle, to));
+            } else {
+                job.sampleTile(from);
+            }
+        }
+
+        private final Job job;
+        private final int from, to;
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Carries an {@link OperationCancelled} exception out of the fork/join
+     * tasks.
+     */
+    static final class CancelledException extends RuntimeException {
+        CancelledException(OperationCancelled cause) {
+            super(cause);
+            operationCancelled = cause;
+        }
+
+        final OperationCancelled operationCancelled;
+
+        @Serial
+        private static final long serialVersionUID = 1L;
+    }
+}
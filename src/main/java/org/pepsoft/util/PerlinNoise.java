@@ -9,6 +9,7 @@ import org.pepsoft.util.mdc.MDCCapturingRuntimeException;
 import org.pepsoft.util.mdc.MDCWrappingRuntimeException;
 
 import java.io.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  *
@@ -78,7 +79,271 @@ public final class PerlinNoise implements Serializable, Cloneable {
     public float getPerlinNoise(double x, double y, double z) {
         return (float) (fastPerlin.sampleResult(x, y, z) * FACTOR_3D);
     }
+
+    /**
+     * Generates two dimensional noise together with its partial derivatives,
+     * which are calculated analytically rather than by sampling neighbouring
+     * points. See {@link FastPerlin#sampleWithDerivatives(double, double, float[])}.
+     *
+     * @param x The X coordinate of the point for which to determine the noise
+     *     value.
+     * @param y The Y coordinate of the point for which to determine the noise
+     *     value.
+     * @param out The array in which to store the noise value, which will be
+     *            the same as that returned by
+     *            {@link #getPerlinNoise(double, double)}, at index 0 and the
+     *            partial derivatives with respect to X and Y at indices 1 and
+     *            2.
+     */
+    public void getPerlinNoiseWithDerivatives(double x, double y, float[] out) {
+        fastPerlin.sampleWithDerivatives(x, y, out);
+        for (int i = 0; i < 3; i++) {
+            out[i] = (float) (out[i] * FACTOR_2D);
+        }
+    }
+
+    /**
+     * Generates three dimensional noise together with its partial
+     * derivatives, which are calculated analytically rather than by sampling
+     * neighbouring points. See
+     * {@link FastPerlin#sampleWithDerivatives(double, double, double, float[])}.
+     *
+     * @param x The X coordinate of the point for which to determine the noise
+     *     value.
+     * @param y The Y coordinate of the point for which to determine the noise
+     *     value.
+     * @param z The Z coordinate of the point for which to determine the noise
+     *     value.
+     * @param out The array in which to store the noise value, which will be
+     *            the same as that returned by
+     *            {@link #getPerlinNoise(double, double, double)}, at index 0
+     *            and the partial derivatives with respect to X, Y and Z at
+     *            indices 1, 2 and 3.
+     */
+    public void getPerlinNoiseWithDerivatives(double x, double y, double z, float[] out) {
+        fastPerlin.sampleWithDerivatives(x, y, z, out);
+        for (int i = 0; i < 4; i++) {
+            out[i] = (float) (out[i] * FACTOR_3D);
+        }
+    }
     
+    /**
+     * Generates two dimensional noise which repeats with a chosen period along
+     * each axis, for wrapping world edges. See
+     * {@link FastPerlin#samplePeriodic(double, double, int, int)}.
+     *
+     * @param x The X coordinate of the point for which to determine the noise
+     *     value.
+     * @param y The Y coordinate of the point for which to determine the noise
+     *     value.
+     * @param periodX The period along the X axis. Must be positive.
+     * @param periodY The period along the Y axis. Must be positive.
+     * @return A noise value between -0.5 and 0.5.
+     */
+    public float getPeriodicPerlinNoise(double x, double y, int periodX, int periodY) {
+        return (float) (fastPerlin.samplePeriodic(x, y, periodX, periodY) * FACTOR_2D);
+    }
+
+    /**
+     * Generates a square tile of two dimensional noise which can be tiled
+     * seamlessly. The tile covers exactly one period of the noise along both
+     * axes, so that the noise value for tile coordinates {@code (i, j)}, which
+     * is stored in {@code out[j * size + i]}, is that of the point
+     * {@code (i * period / size, j * period / size)}.
+     *
+     * @param out The array in which to store the noise values, which will be
+     *            between -0.5 and 0.5. Must have room for at least
+     *            {@code size * size} values.
+     * @param size The number of points along each side of the tile.
+     * @param period The period of the noise, and therefore the size of the
+     *               tile in noise coordinates. Must be positive.
+     */
+    public void getPerlinNoiseTile(float[] out, int size, int period) {
+        fastPerlin.samplePeriodicGrid(out, 0.0, 0.0, (double) period / size, size, size, period, period);
+        for (int i = size * size - 1; i >= 0; i--) {
+            out[i] = (float) (out[i] * FACTOR_2D);
+        }
+    }
+
+    /**
+     * Generates two dimensional noise for a grid of points in one go. This is
+     * considerably faster than invoking {@link #getPerlinNoise(double, double)}
+     * for each point, and produces identical results. The point for grid
+     * coordinates {@code (i, j)} is {@code (x0 + i * step, y0 + j * step)} and
+     * the noise value for it is stored in {@code out[j * width + i]}.
+     *
+     * @param out The array in which to store the noise values, which will be
+     *            between -0.5 and 0.5. Must have room for at least
+     *            {@code width * height} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows.
+     * @param width The number of columns.
+     * @param height The number of rows.
+     */
+    public void getPerlinNoiseGrid(float[] out, double x0, double y0, double step, int width, int height) {
+        fastPerlin.sampleGrid(out, x0, y0, step, width, height);
+        for (int i = width * height - 1; i >= 0; i--) {
+            out[i] = (float) (out[i] * FACTOR_2D);
+        }
+    }
+
+    /**
+     * Determine for a two dimensional grid of points which ones have a noise
+     * value at or above a level, without generating the noise values
+     * themselves. Note that the levels of {@link #getLevelForPromillage(int)}
+     * are for three dimensional noise, which is distributed differently; use
+     * {@link PerlinNoiseLevelFinder#getPerlin2DLevels()} to obtain the level
+     * for a promillage of two dimensional noise. This is considerably faster than generating the noise for
+     * the grid and comparing it to the level, since stretches of points which
+     * are all clearly above or below the level are decided at once. The
+     * layout of the grid is the same as for
+     * {@link #getPerlinNoiseGrid(float[], double, double, double, int, int)},
+     * and the result for grid coordinates {@code (i, j)} is bit
+     * {@code j * width + i} of the mask, in the layout of
+     * {@link java.util.BitSet#valueOf(long[])}. Each bit is set if and only if
+     * {@code getPerlinNoise(x, y) >= level} for the point.
+     *
+     * @param mask The array in which to store the bits. Must have room for at
+     *             least {@code width * height} bits, in other words
+     *             {@code (width * height + 63) / 64} words.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows.
+     * @param width The number of columns.
+     * @param height The number of rows.
+     * @param level The level.
+     * @return The number of bits which were set.
+     */
+    public int getPerlinNoiseMask(long[] mask, double x0, double y0, double step, int width, int height, float level) {
+        return fastPerlin.sampleThreshold(mask, x0, y0, step, width, height, getThreshold2D(level));
+    }
+
+    /**
+     * Count the points of a two dimensional grid which have a noise value at
+     * or above a level, without generating the noise values themselves. The
+     * result is the same as the number of bits set by
+     * {@link #getPerlinNoiseMask(long[], double, double, double, int, int, float)}.
+     * As for that method, the levels of {@link #getLevelForPromillage(int)}
+     * do not apply to two dimensional noise; use
+     * {@link PerlinNoiseLevelFinder#getPerlin2DLevels()} instead.
+     *
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows.
+     * @param width The number of columns.
+     * @param height The number of rows.
+     * @param level The level.
+     * @return The number of points with a noise value at or above the level.
+     */
+    public int countPerlinNoiseAbove(double x0, double y0, double step, int width, int height, float level) {
+        return fastPerlin.sampleThreshold(null, x0, y0, step, width, height, getThreshold2D(level));
+    }
+
+    /**
+     * Generates two dimensional noise and its partial derivatives for a grid
+     * of points in one go. The layout of the grid is the same as for
+     * {@link #getPerlinNoiseGrid(float[], double, double, double, int, int)}
+     * and the results are identical to invoking
+     * {@link #getPerlinNoiseWithDerivatives(double, double, float[])} for each
+     * point.
+     *
+     * @param values The array in which to store the noise values. Must have
+     *               room for at least {@code width * height} values.
+     * @param dx The array in which to store the partial derivatives with
+     *           respect to X. Must have room for at least
+     *           {@code width * height} values.
+     * @param dy The array in which to store the partial derivatives with
+     *           respect to Y. Must have room for at least
+     *           {@code width * height} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows.
+     * @param width The number of columns.
+     * @param height The number of rows.
+     */
+    public void getPerlinNoiseGridWithDerivatives(float[] values, float[] dx, float[] dy, double x0, double y0, double step, int width, int height) {
+        fastPerlin.sampleGridWithDerivatives(values, dx, dy, x0, y0, step, width, height);
+        for (int i = width * height - 1; i >= 0; i--) {
+            values[i] = (float) (values[i] * FACTOR_2D);
+            dx[i] = (float) (dx[i] * FACTOR_2D);
+            dy[i] = (float) (dy[i] * FACTOR_2D);
+        }
+    }
+
+    /**
+     * Generates two dimensional noise for a large grid of points in parallel.
+     * The grid is divided into tiles which are generated as separate tasks on
+     * a fork/join pool. The results are identical to those of
+     * {@link #getPerlinNoiseGrid(float[], double, double, double, int, int)}.
+     *
+     * @param out The array in which to store the noise values, which will be
+     *            between -0.5 and 0.5. Must have room for at least
+     *            {@code width * height} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows.
+     * @param width The number of columns.
+     * @param height The number of rows.
+     * @param pool The pool on which to generate the tiles, or {@code null} to
+     *             use the common pool.
+     * @param progressReceiver The progress receiver to which to report
+     *                         progress and which to check for cancellation.
+     *                         May be {@code null}.
+     * @throws ProgressReceiver.OperationCancelled If the progress receiver
+     *     indicated that the operation should be cancelled.
+     */
+    public void getPerlinNoiseGridParallel(float[] out, double x0, double y0, double step, int width, int height, ForkJoinPool pool, ProgressReceiver progressReceiver) throws ProgressReceiver.OperationCancelled {
+        final FastPerlin fastPerlin = this.fastPerlin;
+        ParallelGridSampler.sampleGrid(out, width, height, (tileOut, offset, stride, col0, row0, tileWidth, tileHeight) -> {
+            final FastPerlin.Columns columns = new FastPerlin.Columns();
+            fastPerlin.initColumns(columns, x0, step, col0, tileWidth);
+            fastPerlin.sampleRows(tileOut, offset, stride, columns, y0, step, row0, tileHeight);
+            for (int j = 0; j < tileHeight; j++) {
+                for (int i = offset + j * stride, end = i + tileWidth; i < end; i++) {
+                    tileOut[i] = (float) (tileOut[i] * FACTOR_2D);
+                }
+            }
+        }, pool, progressReceiver);
+    }
+
+    /**
+     * Generates three dimensional noise for a volume of points in one go. This
+     * is considerably faster than invoking
+     * {@link #getPerlinNoise(double, double, double)} for each point, and
+     * produces identical results. The point for volume coordinates
+     * {@code (i, j, k)} is {@code (x0 + i * step, y0 + j * step, z0 + k * step)}
+     * and the noise value for it is stored in
+     * {@code out[(k * height + j) * width + i]}.
+     *
+     * @param out The array in which to store the noise values, which will be
+     *            between -0.5 and 0.5. Must have room for at least
+     *            {@code width * height * depth} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param z0 The Z coordinate of the first layer.
+     * @param step The distance between consecutive columns, rows and layers.
+     * @param width The number of columns.
+     * @param height The number of rows.
+     * @param depth The number of layers.
+     */
+    public void getPerlinNoiseVolume(float[] out, double x0, double y0, double z0, double step, int width, int height, int depth) {
+        fastPerlin.sampleVolume(out, x0, y0, z0, step, width, height, depth);
+        for (int i = width * height * depth - 1; i >= 0; i--) {
+            out[i] = (float) (out[i] * FACTOR_3D);
+        }
+    }
+
+    /**
+     * Create a handle for sampling this noise from one thread without
+     * allocating memory. See {@link NoiseSampler}.
+     *
+     * @return A new noise sampler for the current seed of this generator.
+     */
+    public NoiseSampler createSampler() {
+        return new NoiseSampler(fastPerlin);
+    }
+
     @Override
     public Object clone() {
         try {
@@ -92,17 +357,27 @@ public final class PerlinNoise implements Serializable, Cloneable {
         return getLevelForPromillage((float) promillage);
     }
     
+    /**
+     * Get the level above which (inclusive) the specified promillage of three
+     * dimensional noise values lies. The table of levels is loaded on first
+     * use. For two dimensional noise, use
+     * {@link PerlinNoiseLevelFinder#getPerlin2DLevels()}.
+     *
+     * @param promillage The promillage, from 0 to 1000 (inclusive).
+     * @return The corresponding noise level.
+     */
     public static float getLevelForPromillage(float promillage) {
-        if ((promillage < 0f) || (promillage > 1000f)) {
-            throw new IllegalArgumentException();
-        }
-        promillage *= 10;
-        if (promillage == (int) promillage) {
-            return LEVEL_FOR_PROMILLAGE[(int) promillage];
-        } else {
-            float level1 = LEVEL_FOR_PROMILLAGE[(int) promillage];
-            return level1 + (LEVEL_FOR_PROMILLAGE[((int) promillage) + 1] - level1) * (promillage - (int) promillage);
-        }
+        return LevelsHolder.LEVELS.getLevelForPromillage(promillage);
+    }
+
+    /**
+     * Convert a level for two dimensional noise to the equivalent threshold
+     * for the raw noise. Since {@link #FACTOR_2D} is a power of two the
+     * division is exact, so that {@code raw >= threshold} if and only if
+     * {@code (float) (raw * FACTOR_2D) >= level}.
+     */
+    private static float getThreshold2D(float level) {
+        return (float) (level / FACTOR_2D);
     }
 
     @Serial
@@ -118,29 +393,28 @@ public final class PerlinNoise implements Serializable, Cloneable {
     private long seed;
     private FastPerlin fastPerlin;
 
-    private static final double FACTOR_2D = 0.5;
-    private static final double FACTOR_3D = 0.4824607142760952;
+    static final double FACTOR_2D = 0.5;
+    static final double FACTOR_3D = 0.4824607142760952;
     @Serial
     private static final long serialVersionUID = 2011040701L;
 
-    private static final float[] LEVEL_FOR_PROMILLAGE = new float[10001];
+    /**
+     * Lazy initialisation holder for the levels table, so that it is only
+     * loaded when it is actually used, rather than whenever a noise generator
+     * is created.
+     */
+    private static final class LevelsHolder {
+        private static final NoiseLevels LEVELS;
 
-    static {
-        // Initialise the array from a file, because it is too large to
-        // initialise with a static initialiser. It generates a "code too large"
-        // error.
-        try {
-            try (BufferedReader in = new BufferedReader(new InputStreamReader(PerlinNoise.class.getResourceAsStream("noiselevels.txt")))) {
-                int index = 0;
-                String line;
-                while ((line = in.readLine()) != null) {
-                    for (String token : line.split("[ ,]+")) {
-                        LEVEL_FOR_PROMILLAGE[index++] = Float.parseFloat(token);
-                    }
-                }
+        static {
+            // The table is stored as a binary resource, because it is too
+            // large to initialise with a static initialiser. That generates a
+            // "code too large" error.
+            try (InputStream in = PerlinNoise.class.getResourceAsStream("noiselevels.bin")) {
+                LEVELS = NoiseLevels.read(in);
+            } catch (IOException e) {
+                throw new MDCCapturingRuntimeException("I/O error while trying to load noise levels from classpath", e);
             }
-        } catch (IOException e) {
-            throw new MDCCapturingRuntimeException("I/O error while trying to load noise levels from classpath", e);
         }
     }
 }
\ No newline at end of file
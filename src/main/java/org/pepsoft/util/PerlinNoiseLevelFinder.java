@@ -5,133 +5,482 @@
 
 package org.pepsoft.util;
 
+import com.google.common.hash.Hashing;
+import se.liu.itn.stegu.SimplexNoise;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static org.pepsoft.util.NoiseLevels.LEVEL_COUNT;
 
 /**
+ * Finds the noise levels by promillage for arbitrary noise configurations, in
+ * the form of {@link NoiseLevels} tables.
+ *
+ * <p>The noise is sampled once at a large number of pseudo random points into
+ * a fine grained histogram, from which all levels are derived in a single
+ * pass. The sampling is spread over the common fork-join pool, and uses fixed
+ * seeds, so that the results are deterministic.
+ *
+ * <p>Generated tables are cached in memory, and in binary form in the XDG
+ * cache directory, so that they only need to be generated once per
+ * installation. The cache file names include a hash of the generation
+ * parameters, and cache files are replaced atomically and validated when
+ * loaded.
  *
  * @author pepijn
  */
 public class PerlinNoiseLevelFinder {
-    public static void main(String[] args) throws InterruptedException {
-        new Thread("Thread 1") {
-            @Override
-            public void run() {
-                findLevels(0, 1250);
+    /**
+     * Get the levels for two dimensional {@link PerlinNoise}.
+     *
+     * @return The levels for two dimensional {@link PerlinNoise}.
+     */
+    public static NoiseLevels getPerlin2DLevels() {
+        return getLevels(NoiseType.PERLIN_2D);
+    }
+
+    /**
+     * Get the levels for two dimensional {@link SimplexNoise}.
+     *
+     * @return The levels for two dimensional {@link SimplexNoise}.
+     */
+    public static NoiseLevels getSimplex2DLevels() {
+        return getLevels(NoiseType.SIMPLEX_2D);
+    }
+
+    /**
+     * Get the levels for three dimensional {@link SimplexNoise}.
+     *
+     * @return The levels for three dimensional {@link SimplexNoise}.
+     */
+    public static NoiseLevels getSimplex3DLevels() {
+        return getLevels(NoiseType.SIMPLEX_3D);
+    }
+
+    /**
+     * Get the levels for a noise configuration, from the in-memory or on-disk
+     * cache if available, or by generating them otherwise. Generating the
+     * levels may take several seconds. Threads requesting the same levels
+     * concurrently wait for the first one to generate them; other threads are
+     * not blocked. The noise function may itself look up the levels for
+     * other keys, but not for the same key.
+     *
+     * @param key A unique key for the noise configuration, which will also be
+     *            used in the file name for the on-disk cache.
+     * @param noise The noise function. Must be thread safe.
+     * @param minValue The lowest value the noise function can produce.
+     * @param maxValue The highest value the noise function can produce.
+     * @return The levels for the noise configuration.
+     */
+    public static NoiseLevels getLevels(String key, NoiseFunction noise, float minValue, float maxValue) {
+        return getLevels(CACHE_DIR, key, noise, minValue, maxValue);
+    }
+
+    static NoiseLevels getLevels(File cacheDir, String key, NoiseFunction noise, float minValue, float maxValue) {
+        final String fileName = getCacheFileName(key, minValue, maxValue);
+        final File file = (cacheDir != null) ? new File(cacheDir, fileName) : null;
+        final String cacheKey = (file != null) ? file.getPath() : fileName;
+        // The levels are loaded or generated outside the map, so that other
+        // threads are not blocked and the noise function may itself look up
+        // levels. Other threads needing the same levels wait for the future
+        CompletableFuture<NoiseLevels> future = LEVELS_CACHE.get(cacheKey);
+        if (future == null) {
+            final CompletableFuture<NoiseLevels> newFuture = new CompletableFuture<>();
+            future = LEVELS_CACHE.putIfAbsent(cacheKey, newFuture);
+            if (future == null) {
+                try {
+                    newFuture.complete(loadOrGenerateLevels(file, key, noise, minValue, maxValue));
+                } catch (RuntimeException | Error e) {
+                    LEVELS_CACHE.remove(cacheKey, newFuture);
+                    newFuture.completeExceptionally(e);
+                    throw e;
+                }
+                return newFuture.join();
             }
-        }.start();
-        new Thread("Thread 2") {
-            @Override
-            public void run() {
-                findLevels(1250, 2500);
+        }
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            } else {
+                throw e;
             }
-        }.start();
-        new Thread("Thread 3") {
-            @Override
-            public void run() {
-                findLevels(2500, 3750);
+        }
+    }
+
+    private static NoiseLevels loadOrGenerateLevels(File file, String key, NoiseFunction noise, float minValue, float maxValue) {
+        if ((file != null) && file.isFile()) {
+            try {
+                return readCacheFile(file, minValue, maxValue);
+            } catch (IOException e) {
+                logger.warn("Invalid or unreadable cached noise levels in " + file + "; regenerating", e);
             }
-        }.start();
-        new Thread("Thread 4") {
-            @Override
-            public void run() {
-                findLevels(3750, 5000);
+        }
+        final long start = System.currentTimeMillis();
+        final NoiseLevels levels = findLevels(noise, minValue, maxValue, DEFAULT_SAMPLE_COUNT);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Generating noise levels for " + key + " took " + (System.currentTimeMillis() - start) + " ms");
+        }
+        if (file != null) {
+            try {
+                writeCacheFile(file, levels);
+            } catch (IOException e) {
+                logger.warn("I/O error writing noise levels to cache file " + file, e);
             }
-        }.start();
-        new Thread("Thread 5") {
-            @Override
-            public void run() {
-                findLevels(5000, 6250);
+        }
+        return levels;
+    }
+
+    private static NoiseLevels getLevels(NoiseType type) {
+        return getLevels(type.key, type.createFunction(), type.minValue, type.maxValue);
+    }
+
+    /**
+     * Generate the levels for a noise function, by sampling it at pseudo
+     * random points with coordinates between 0 (inclusive) and 256 (exclusive)
+     * on all three axes. Two dimensional noise functions should simply ignore
+     * the Z coordinate. The result is deterministic for a given noise
+     * function, value range and sample count.
+     *
+     * @param noise The noise function. Must be thread safe.
+     * @param minValue The lowest value the noise function can produce.
+     * @param maxValue The highest value the noise function can produce.
+     * @param sampleCount The number of samples to take.
+     * @return The levels for the noise function.
+     */
+    public static NoiseLevels findLevels(NoiseFunction noise, float minValue, float maxValue, long sampleCount) {
+        final long[] histogram = sampleHistogram(noise, minValue, maxValue, 0, sampleCount);
+        return new NoiseLevels(levelsFromHistogram(histogram, sampleCount, minValue, maxValue));
+    }
+
+    /**
+     * Generate the levels for a noise function, repeatedly doubling the number
+     * of samples until the levels no longer change by more than a specified
+     * tolerance. Each round only samples the new points and adds them to the
+     * histogram of the previous rounds. The points are the same as those of
+     * {@link #findLevels(NoiseFunction, float, float, long)}, so the result is
+     * deterministic.
+     *
+     * @param noise The noise function. Must be thread safe.
+     * @param minValue The lowest value the noise function can produce.
+     * @param maxValue The highest value the noise function can produce.
+     * @param tolerance The largest change of any level between two
+     *                  consecutive rounds at which to consider the levels to
+     *                  have converged.
+     * @param maxSampleCount The number of samples after which to stop, whether
+     *                       or not the levels have converged.
+     * @return The levels for the noise function.
+     */
+    public static NoiseLevels findLevels(NoiseFunction noise, float minValue, float maxValue, float tolerance, long maxSampleCount) {
+        long sampleCount = Math.min(CHUNK_SIZE, maxSampleCount);
+        final long[] histogram = sampleHistogram(noise, minValue, maxValue, 0, sampleCount);
+        float[] levels = levelsFromHistogram(histogram, sampleCount, minValue, maxValue);
+        while (sampleCount < maxSampleCount) {
+            final long newSampleCount = Math.min(sampleCount * 2, maxSampleCount);
+            final long[] newSamples = sampleHistogram(noise, minValue, maxValue, sampleCount, newSampleCount);
+            for (int i = 0; i < BIN_COUNT; i++) {
+                histogram[i] += newSamples[i];
             }
-        }.start();
-        new Thread("Thread 6") {
-            @Override
-            public void run() {
-                findLevels(6250, 7500);
+            sampleCount = newSampleCount;
+            final float[] newLevels = levelsFromHistogram(histogram, sampleCount, minValue, maxValue);
+            float maxDelta = 0.0f;
+            for (int i = 0; i < LEVEL_COUNT; i++) {
+                maxDelta = Math.max(maxDelta, Math.abs(newLevels[i] - levels[i]));
             }
-        }.start();
-        findLevels(7500, 10001, false);
-        latch.await();
-        synchronized (levels) {
+            levels = newLevels;
+            if (logger.isDebugEnabled()) {
+                logger.debug("Largest level change at " + sampleCount + " samples: " + maxDelta);
+            }
+            if (maxDelta <= tolerance) {
+                break;
+            }
+        }
+        return new NoiseLevels(levels);
+    }
+
+    /**
+     * Sample a noise function at the pseudo random points with sequence
+     * numbers {@code from} (inclusive) to {@code to} (exclusive) into a
+     * histogram. The points are generated in chunks of {@link #CHUNK_SIZE},
+     * each with its own fixed seed, which are distributed over the common
+     * fork-join pool. {@code from} must be a multiple of the chunk size.
+     */
+    private static long[] sampleHistogram(NoiseFunction noise, float minValue, float maxValue, long from, long to) {
+        final int firstChunk = (int) (from / CHUNK_SIZE), lastChunk = (int) ((to + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        final double binsPerUnit = BIN_COUNT / ((double) maxValue - minValue);
+        return IntStream.range(firstChunk, lastChunk).parallel().collect(() -> new long[BIN_COUNT], (bins, chunk) -> {
+            final Random random = new Random(SEED + chunk);
+            final long count = Math.min(CHUNK_SIZE, to - (long) chunk * CHUNK_SIZE);
+            for (long i = 0; i < count; i++) {
+                final double x = random.nextDouble() * 256;
+                final double y = random.nextDouble() * 256;
+                final double z = random.nextDouble() * 256;
+                final int bin = (int) ((noise.getValue(x, y, z) - minValue) * binsPerUnit);
+                bins[Math.max(Math.min(bin, BIN_COUNT - 1), 0)]++;
+            }
+        }, (bins1, bins2) -> {
+            for (int i = 0; i < BIN_COUNT; i++) {
+                bins1[i] += bins2[i];
+            }
+        });
+    }
+
+    /**
+     * Derive the levels from a histogram of noise values, interpolating
+     * linearly within the bins.
+     */
+    private static float[] levelsFromHistogram(long[] histogram, long total, float minValue, float maxValue) {
+        final float[] levels = new float[LEVEL_COUNT];
+        final double binWidth = ((double) maxValue - minValue) / histogram.length;
+        levels[0] = maxValue;
+        levels[LEVEL_COUNT - 1] = minValue;
+        int bin = histogram.length - 1;
+        long above = 0; // The number of samples in the bins above the current bin
+        for (int i = 1; i < LEVEL_COUNT - 1; i++) {
+            final double target = (double) total * i / (LEVEL_COUNT - 1);
+            while ((above + histogram[bin]) < target) {
+                above += histogram[bin];
+                bin--;
+            }
+            final double fraction = (target - above) / histogram[bin];
+            levels[i] = (float) (minValue + (bin + 1 - fraction) * binWidth);
+        }
+        return levels;
+    }
+
+    /**
+     * Get the name of the cache file for a noise configuration. Apart from
+     * the key it contains a hash of the key, the value range, the sampling
+     * parameters and {@link #FORMAT_VERSION}, so that tables generated with
+     * different parameters or by older versions of the code are never used.
+     * The sample count is deliberately not included, since a table generated
+     * from more samples is a valid substitute.
+     */
+    static String getCacheFileName(String key, float minValue, float maxValue) {
+        final String parameters = FORMAT_VERSION + ":" + SEED + ":" + CHUNK_SIZE + ":" + BIN_COUNT + ":"
+                + Float.floatToIntBits(minValue) + ":" + Float.floatToIntBits(maxValue) + ":" + key;
+        final String hash = Hashing.sha256().hashString(parameters, UTF_8).toString().substring(0, 16);
+        return key.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + hash + ".bin";
+    }
+
+    /**
+     * Read a cached levels table, rejecting it if it is truncated or
+     * otherwise does not contain a valid table for the value range.
+     */
+    private static NoiseLevels readCacheFile(File file, float minValue, float maxValue) throws IOException {
+        if (file.length() != SIZE_IN_BYTES) {
+            throw new IOException("Cache file " + file + " has wrong size " + file.length());
+        }
+        final NoiseLevels levels;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            levels = NoiseLevels.read(in);
+        }
+        if (! levels.isValid(minValue, maxValue)) {
+            throw new IOException("Cache file " + file + " does not contain a valid levels table");
+        }
+        return levels;
+    }
+
+    /**
+     * Write a levels table to a cache file. The table is first written to a
+     * temporary file which is then atomically moved into place, so that other
+     * processes never see a partially written file.
+     */
+    private static void writeCacheFile(File file, NoiseLevels levels) throws IOException {
+        final File dir = file.getParentFile();
+        if ((! dir.isDirectory()) && (! dir.mkdirs())) {
+            throw new IOException("Could not create directory " + dir);
+        }
+        final Path tempFile = Files.createTempFile(dir.toPath(), file.getName(), ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempFile))) {
+                levels.write(out);
+            }
+            Files.move(tempFile, file.toPath(), ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Generate a levels table from the command line. Usage:
+     *
+     * <pre>PerlinNoiseLevelFinder [perlin-2d|perlin-3d|simplex-2d|simplex-3d] [output file or directory]</pre>
+     *
+     * <p>The default noise type is {@code perlin-3d}, which is the type of the
+     * table bundled with {@link PerlinNoise}. The levels are sampled until
+     * they have converged. If an output directory is specified the table is
+     * written to it as a cache file, with the same name and format which
+     * {@link #getLevels(String, NoiseFunction, float, float)} reads, so that
+     * it can be copied into the cache directory. If an output file is
+     * specified the table is written to it in the binary format of
+     * {@link NoiseLevels#write(OutputStream)}. Otherwise it is printed to
+     * standard output as text.
+     */
+    public static void main(String[] args) throws IOException {
+        final NoiseType type = NoiseType.forKey((args.length > 0) ? args[0] : "perlin-3d");
+        if (type == null) {
+            System.err.println("Usage: PerlinNoiseLevelFinder [perlin-2d|perlin-3d|simplex-2d|simplex-3d] [output file or directory]");
+            System.exit(1);
+            return;
+        }
+
+        final File output = (args.length > 1) ? new File(args[1]) : null;
+        final long start = System.currentTimeMillis();
+        if ((output != null) && output.isDirectory()) {
+            final File file = generateCacheFile(type.key, output, MAX_SAMPLE_COUNT);
+            System.err.println("Generating levels for " + type.key + " took " + (System.currentTimeMillis() - start) + " ms");
+            System.err.println("Wrote cache file " + file);
+            return;
+        }
+        final NoiseLevels levels = findLevels(type, MAX_SAMPLE_COUNT);
+        System.err.println("Generating levels for " + type.key + " took " + (System.currentTimeMillis() - start) + " ms");
+
+        if (output != null) {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(output))) {
+                levels.write(out);
+            }
+        } else {
             System.out.print('{');
-            for (int i = 0; i <= 10000; i++) {
-                System.out.print(levels[i]);
+            for (int i = 0; i < LEVEL_COUNT; i++) {
+                System.out.print(levels.getLevelForPromillage(i / 10f));
                 System.out.print('f');
-                if (i < 10000) {
+                if (i < LEVEL_COUNT - 1) {
                     System.out.print(", ");
                 }
                 if ((i + 1) % 10 == 0) {
                     System.out.println();
                 }
             }
-            System.out.print('}');
+            System.out.println('}');
         }
     }
-    
-    private static void findLevels(int from , int to) {
-        findLevels(from, to, true);
-    }
-    
-    private static void findLevels(int from , int to, boolean decrementLatch) {
-        PerlinNoise perlinNoise = new PerlinNoise(0);
-        for (int i = from; i < to; i++) {
-            float target = i / 10000f;
-            float level = findLevelForPromillage(perlinNoise, target);
-            synchronized (levels) {
-                levels[i] = level;
-            }
-        }
-        if (decrementLatch) {
-            latch.countDown();
+
+    /**
+     * Generate the levels for a built-in noise type until they have
+     * converged, and write them to a directory as a cache file, as
+     * {@link #main(String[])} does.
+     *
+     * @param typeKey The key of the noise type, e.g. {@code perlin-3d}.
+     * @param directory The directory to write the cache file to.
+     * @param maxSampleCount The number of samples after which to stop, whether
+     *                       or not the levels have converged.
+     * @return The cache file.
+     * @throws IOException If an I/O error occurs writing the cache file.
+     */
+    static File generateCacheFile(String typeKey, File directory, long maxSampleCount) throws IOException {
+        final NoiseType type = NoiseType.forKey(typeKey);
+        if (type == null) {
+            throw new IllegalArgumentException("Unknown noise type " + typeKey);
         }
+        final File file = new File(directory, getCacheFileName(type.key, type.minValue, type.maxValue));
+        writeCacheFile(file, findLevels(type, maxSampleCount));
+        return file;
     }
 
-    private static float findLevelForPromillage(PerlinNoise perlinNoise, float target) {
-        float level = 0f, step = 0.25f, previousLevel = 0f;
-        float promillage = 0f;
-        for (int i = 0; i < 100; i++) {
-            int hits = numberOfHits(perlinNoise, level, 10000000);
-            promillage = hits / 10000000.0f;
-            if (promillage > target) {
-                level += step;
-                if (level == previousLevel) {
-                    System.out.println("Promillage at level " + level + ": " + (promillage * 1000));
-                    return level;
-                }
-                previousLevel = level;
-                step /= 2;
-            } else if (promillage < target) {
-                level -= step;
-                if (level == previousLevel) {
-                    System.out.println("Promillage at level " + level + ": " + (promillage * 1000));
-                    return level;
-                }
-                previousLevel = level;
-                step /= 2;
-            } else {
-                System.out.println("Promillage at level " + level + ": " + (promillage * 1000));
-                return level;
+    private static NoiseLevels findLevels(NoiseType type, long maxSampleCount) {
+        return findLevels(type.createFunction(), type.minValue, type.maxValue, CONVERGENCE_TOLERANCE, maxSampleCount);
+    }
+
+    private static final Map<String, CompletableFuture<NoiseLevels>> LEVELS_CACHE = new ConcurrentHashMap<>();
+    private static final File CACHE_DIR = (XDG.XDG_CACHE_HOME != null) ? new File(XDG.XDG_CACHE_HOME, "pepsoft" + File.separatorChar + "noiselevels") : null;
+    private static final long SEED = 0x4e6f6973654c766cL;
+    /**
+     * The version of the generated tables, which is part of the cache file
+     * names. Must be incremented whenever a change to the sampling or to the
+     * built-in noise generators changes the generated levels.
+     */
+    private static final int FORMAT_VERSION = 1;
+    private static final long SIZE_IN_BYTES = LEVEL_COUNT * 4L;
+    private static final long DEFAULT_SAMPLE_COUNT = 10_000_000L;
+    private static final long MAX_SAMPLE_COUNT = 1L << 31;
+    private static final float CONVERGENCE_TOLERANCE = 1e-4f;
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int BIN_COUNT = 1 << 18;
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(PerlinNoiseLevelFinder.class);
+
+    /**
+     * A noise function for which to find the levels.
+     */
+    @FunctionalInterface
+    public interface NoiseFunction {
+        /**
+         * Get the noise value at a particular point.
+         *
+         * @param x The X coordinate of the point.
+         * @param y The Y coordinate of the point.
+         * @param z The Z coordinate of the point.
+         * @return The noise value at the specified point.
+         */
+        float getValue(double x, double y, double z);
+    }
+
+    /**
+     * The noise types with built-in level tables, which can be generated with
+     * {@link #main(String[])} as well as at runtime. Both use the same noise
+     * generator and key for a type, so that they produce interchangeable
+     * tables.
+     */
+    private enum NoiseType {
+        PERLIN_2D("perlin-2d", -0.5f, 0.5f) {
+            @Override
+            NoiseFunction createFunction() {
+                final PerlinNoise perlinNoise = new PerlinNoise(0);
+                return (x, y, z) -> perlinNoise.getPerlinNoise(x, y);
             }
+        },
+        PERLIN_3D("perlin-3d", -0.5f, 0.5f) {
+            @Override
+            NoiseFunction createFunction() {
+                return new PerlinNoise(0)::getPerlinNoise;
+            }
+        },
+        SIMPLEX_2D("simplex-2d", -1.0f, 1.0f) {
+            @Override
+            NoiseFunction createFunction() {
+                final SimplexNoise simplexNoise = new SimplexNoise(0);
+                return (x, y, z) -> (float) simplexNoise.noise(x, y);
+            }
+        },
+        SIMPLEX_3D("simplex-3d", -1.0f, 1.0f) {
+            @Override
+            NoiseFunction createFunction() {
+                final SimplexNoise simplexNoise = new SimplexNoise(0);
+                return (x, y, z) -> (float) simplexNoise.noise(x, y, z);
+            }
+        };
+
+        NoiseType(String key, float minValue, float maxValue) {
+            this.key = key;
+            this.minValue = minValue;
+            this.maxValue = maxValue;
         }
-        System.out.println("Promillage at level " + level + ": " + (promillage * 1000));
-        return level;
-    }
 
-    private static int numberOfHits(PerlinNoise perlinNoise, float level, int count) {
-        int hits = 0;
-        Random random = new Random(0);
-        for (int i = 0; i < count; i++) {
-            double x = random.nextDouble() * 256;
-            double y = random.nextDouble() * 256;
-            double z = random.nextDouble() * 256;
-            float noise = perlinNoise.getPerlinNoise(x, y, z);
-            if (noise >= level) {
-                hits++;
+        abstract NoiseFunction createFunction();
+
+        static NoiseType forKey(String key) {
+            for (NoiseType type: values()) {
+                if (type.key.equals(key)) {
+                    return type;
+                }
             }
+            return null;
         }
-        return hits;
+
+        final String key;
+        final float minValue, maxValue;
     }
-    
-    private static final float levels[] = new float[10001];
-    private static final CountDownLatch latch = new CountDownLatch(6);
 }
\ No newline at end of file
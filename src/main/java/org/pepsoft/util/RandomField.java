@@ -6,7 +6,14 @@
 
 package org.pepsoft.util;
 
+import static org.pepsoft.util.FastPerlin.fade;
+import static org.pepsoft.util.PerlinNoise.FACTOR_3D;
+
 /**
+ * A field of pseudo random values of a specified number of bits, each bit
+ * being determined by whether an independent Perlin noise field is above
+ * zero. The lattice cell and fade weights of a point are calculated once and
+ * shared by all the bits.
  *
  * @author pepijn
  */
@@ -14,9 +21,10 @@ public final class RandomField {
     public RandomField(int bits, double scale, long seed) {
         this.bits = bits;
         this.scale = scale;
-        noiseGenerators = new PerlinNoise[bits];
+        this.seed = seed;
+        noiseGenerators = new FastPerlin[bits];
         for (int i = 0; i < bits; i++) {
-            noiseGenerators[i] = new PerlinNoise(seed + i);
+            noiseGenerators[i] = new FastPerlin(seed + i);
         }
     }
     
@@ -30,27 +38,47 @@ public final class RandomField {
 
     public int getValue(int x, int y, int z) {
         final double dX = x / scale, dY = y / scale, dZ = z / scale;
-        switch (bits) {
-            case 1:
-                return noiseGenerators[0].getPerlinNoise(dX, dY, dZ) > 0 ? 1 : 0;
-            case 2:
-                return (noiseGenerators[0].getPerlinNoise(dX, dY, dZ) > 0 ? 2 : 0)
-                     | (noiseGenerators[1].getPerlinNoise(dX, dY, dZ) > 0 ? 1 : 0);
-            case 3:
-                return (noiseGenerators[0].getPerlinNoise(dX, dY, dZ) > 0 ? 4 : 0)
-                     | (noiseGenerators[1].getPerlinNoise(dX, dY, dZ) > 0 ? 2 : 0)
-                     | (noiseGenerators[2].getPerlinNoise(dX, dY, dZ) > 0 ? 1 : 0);
-            case 4:
-                return (noiseGenerators[0].getPerlinNoise(dX, dY, dZ) > 0 ? 8 : 0)
-                     | (noiseGenerators[1].getPerlinNoise(dX, dY, dZ) > 0 ? 4 : 0)
-                     | (noiseGenerators[2].getPerlinNoise(dX, dY, dZ) > 0 ? 2 : 0)
-                     | (noiseGenerators[3].getPerlinNoise(dX, dY, dZ) > 0 ? 1 : 0);
-            default:
-                int value = 0;
-                for (int i = 0; i < bits; i++) {
-                    value = (value << 1) | (noiseGenerators[i].getPerlinNoise(dX, dY, dZ) > 0 ? 1 : 0);
-                }
-                return value;
+        final float lx = (float) (dX - Math.floor(dX));
+        final float ly = (float) (dY - Math.floor(dY));
+        final float lz = (float) (dZ - Math.floor(dZ));
+        return getValue((int) Math.floor(dX), (int) Math.floor(dY), (int) Math.floor(dZ), lx, ly, lz, fade(lx), fade(ly), fade(lz));
+    }
+
+    /**
+     * Get the values for a rectangular region of a horizontal plane in one
+     * go. This is faster than invoking {@link #getValue(int, int, int)} for
+     * each point, and produces identical results. The value for
+     * {@code (x0 + i, y0 + j, z)} is stored in {@code out[j * width + i]}.
+     *
+     * @param out The array in which to store the values. Must have room for at
+     *            least {@code width * height} values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param z The Z coordinate of the plane.
+     * @param width The number of columns.
+     * @param height The number of rows.
+     */
+    public void getValues(int[] out, int x0, int y0, int z, int width, int height) {
+        final int[] bxs = new int[width];
+        final float[] lxs = new float[width], pxs = new float[width];
+        for (int i = 0; i < width; i++) {
+            final double dX = (x0 + i) / scale;
+            bxs[i] = (int) Math.floor(dX);
+            lxs[i] = (float) (dX - Math.floor(dX));
+            pxs[i] = fade(lxs[i]);
+        }
+        final double dZ = z / scale;
+        final int bz = (int) Math.floor(dZ);
+        final float lz = (float) (dZ - Math.floor(dZ));
+        final float pz = fade(lz);
+        for (int j = 0; j < height; j++) {
+            final double dY = (y0 + j) / scale;
+            final int by = (int) Math.floor(dY);
+            final float ly = (float) (dY - Math.floor(dY));
+            final float py = fade(ly);
+            for (int i = 0, index = j * width; i < width; i++, index++) {
+                out[index] = getValue(bxs[i], by, bz, lxs[i], ly, lz, pxs[i], py, pz);
+            }
         }
     }
     
@@ -65,16 +93,28 @@ public final class RandomField {
     }
 
     public long getSeed() {
-        return noiseGenerators[0].getSeed();
+        return seed;
     }
 
     public void setSeed(long seed) {
-        for (int i = 0; i < bits; i++) {
-            noiseGenerators[i].setSeed(seed + i);
+        if (seed != this.seed) {
+            this.seed = seed;
+            for (int i = 0; i < bits; i++) {
+                noiseGenerators[i] = new FastPerlin(seed + i);
+            }
+        }
+    }
+
+    private int getValue(int bx, int by, int bz, float lx, float ly, float lz, float px, float py, float pz) {
+        int value = 0;
+        for (FastPerlin noiseGenerator: noiseGenerators) {
+            value = (value << 1) | (((float) (noiseGenerator.sampleLattice(bx, by, bz, lx, ly, lz, px, py, pz) * FACTOR_3D) > 0) ? 1 : 0);
         }
+        return value;
     }
     
     private final int bits;
     private final double scale;
-    private final PerlinNoise[] noiseGenerators;
-}
\ No newline at end of file
+    private final FastPerlin[] noiseGenerators;
+    private long seed;
+}
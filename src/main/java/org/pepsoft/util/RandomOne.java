@@ -5,6 +5,7 @@
 package org.pepsoft.util;
 
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  *
@@ -17,13 +18,11 @@ public final class RandomOne {
     
     @SafeVarargs
     public static <T> T of(T... objects) {
-        return objects[RANDOM.nextInt(objects.length)];
+        return objects[ThreadLocalRandom.current().nextInt(objects.length)];
     }
     
     @SafeVarargs
     public static <T> T of(Random random, T... objects) {
         return objects[random.nextInt(objects.length)];
     }
-    
-    private static final Random RANDOM = new Random();
 }
\ No newline at end of file
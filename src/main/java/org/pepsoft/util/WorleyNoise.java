@@ -0,0 +1,323 @@
+package org.pepsoft.util;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * Cellular or Worley noise: the distances from a point to the nearest
+ * ({@code F1}) and second nearest ({@code F2}) of a set of pseudo randomly
+ * distributed feature points. Space is divided into cells of one unit along
+ * each axis, and each cell contains one feature point at a position derived by
+ * hashing the seed and the cell coordinates, so that the feature points do not
+ * need to be stored.
+ *
+ * <p>The distances are Euclidean and in the same units as the coordinates,
+ * and are exact: cells further away than the immediately neighbouring ones
+ * are searched whenever they could contain a closer feature point. Distances
+ * are compared squared, and only the final results are square rooted.
+ *
+ * <p>This class is thread safe.
+ *
+ * @author pepijn
+ */
+public class WorleyNoise implements Serializable {
+    public WorleyNoise(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Get the distance from a point to the nearest feature point.
+     *
+     * @param x The X coordinate of the point.
+     * @param y The Y coordinate of the point.
+     * @return The distance to the nearest feature point.
+     */
+    public float getF1(double x, double y) {
+        final float[] out = new float[2];
+        getF1F2(x, y, out);
+        return out[0];
+    }
+
+    /**
+     * Get the distances from a point to the nearest and second nearest
+     * feature points.
+     *
+     * @param x The X coordinate of the point.
+     * @param y The Y coordinate of the point.
+     * @param out The array in which to store the distances. The distance to the
+     *            nearest feature point is stored at index 0, and to the
+     *            second nearest at index 1.
+     */
+    public void getF1F2(double x, double y, float[] out) {
+        final int cx = (int) Math.floor(x), cy = (int) Math.floor(y);
+        final float fx = (float) (x - cx), fy = (float) (y - cy);
+        float f1 = Float.MAX_VALUE, f2 = Float.MAX_VALUE;
+        for (int dy = -2; dy <= 2; dy++) {
+            final float gapY = gap(dy, fy);
+            for (int dx = -2; dx <= 2; dx++) {
+                // Skip the cells which cannot contain a feature point closer
+                // than the second nearest one found so far
+                final float gapX = gap(dx, fx);
+                if (Math.fma(gapX, gapX, gapY * gapY) >= f2) {
+                    continue;
+                }
+                final long hash = hash(cx + dx, cy + dy);
+                final float distX = dx + offset(hash, 0) - fx, distY = dy + offset(hash, 1) - fy;
+                final float distance = Math.fma(distX, distX, distY * distY);
+                if (distance < f1) {
+                    f2 = f1;
+                    f1 = distance;
+                } else if (distance < f2) {
+                    f2 = distance;
+                }
+            }
+        }
+        out[0] = (float) Math.sqrt(f1);
+        out[1] = (float) Math.sqrt(f2);
+    }
+
+    /**
+     * Get the distance from a point to the nearest feature point in three
+     * dimensional space.
+     *
+     * @param x The X coordinate of the point.
+     * @param y The Y coordinate of the point.
+     * @param z The Z coordinate of the point.
+     * @return The distance to the nearest feature point.
+     */
+    public float getF1(double x, double y, double z) {
+        final float[] out = new float[2];
+        getF1F2(x, y, z, out);
+        return out[0];
+    }
+
+    /**
+     * Get the distances from a point to the nearest and second nearest
+     * feature points in three dimensional space.
+     *
+     * @param x The X coordinate of the point.
+     * @param y The Y coordinate of the point.
+     * @param z The Z coordinate of the point.
+     * @param out The array in which to store the distances. The distance to the
+     *            nearest feature point is stored at index 0, and to the
+     *            second nearest at index 1.
+     */
+    public void getF1F2(double x, double y, double z, float[] out) {
+        final int cx = (int) Math.floor(x), cy = (int) Math.floor(y), cz = (int) Math.floor(z);
+        final float fx = (float) (x - cx), fy = (float) (y - cy), fz = (float) (z - cz);
+        float f1 = Float.MAX_VALUE, f2 = Float.MAX_VALUE;
+        for (int dz = -2; dz <= 2; dz++) {
+            final float gapZ = gap(dz, fz);
+            for (int dy = -2; dy <= 2; dy++) {
+                final float gapY = gap(dy, fy), gapYZ = Math.fma(gapY, gapY, gapZ * gapZ);
+                if (gapYZ >= f2) {
+                    continue;
+                }
+                for (int dx = -2; dx <= 2; dx++) {
+                    final float gapX = gap(dx, fx);
+                    if (Math.fma(gapX, gapX, gapYZ) >= f2) {
+                        continue;
+                    }
+                    final long hash = hash(cx + dx, cy + dy, cz + dz);
+                    final float distX = dx + offset(hash, 0) - fx, distY = dy + offset(hash, 1) - fy, distZ = dz + offset(hash, 2) - fz;
+                    final float distance = Math.fma(distX, distX, Math.fma(distY, distY, distZ * distZ));
+                    if (distance < f1) {
+                        f2 = f1;
+                        f1 = distance;
+                    } else if (distance < f2) {
+                        f2 = distance;
+                    }
+                }
+            }
+        }
+        out[0] = (float) Math.sqrt(f1);
+        out[1] = (float) Math.sqrt(f2);
+    }
+
+    /**
+     * Get the distances to the nearest and optionally the second nearest
+     * feature points for a two dimensional grid of points in one go. The
+     * point for grid coordinates {@code (i, j)} is
+     * {@code (x0 + i * step, y0 + j * step)} and the distances for it are
+     * stored at index {@code j * width + i} of the arrays. The results are
+     * identical to invoking {@link #getF1F2(double, double, float[])} for each
+     * point.
+     *
+     * <p>The feature points of the cells around each row of cells are
+     * calculated once and reused for all points of all rows of the grid
+     * which fall in that row of cells. If the step is larger than the cell
+     * size there is nothing to reuse, since every point falls in a different
+     * cell, and the points are sampled individually.
+     *
+     * @param f1 The array in which to store the distances to the nearest
+     *           feature points. Must have room for at least
+     *           {@code width * height} values.
+     * @param f2 The array in which to store the distances to the second
+     *           nearest feature points, or {@code null} if they are not
+     *           needed. Must have room for at least {@code width * height}
+     *           values.
+     * @param x0 The X coordinate of the first column.
+     * @param y0 The Y coordinate of the first row.
+     * @param step The distance between consecutive columns and rows. Must be
+     *             positive.
+     * @param width The number of columns.
+     * @param height The number of rows.
+     */
+    public void sampleGrid(float[] f1, float[] f2, double x0, double y0, double step, int width, int height) {
+        if ((width <= 0) || (height <= 0)) {
+            return;
+        } else if (step > 1.0) {
+            // The row cache would have to cover width * step cells
+            final float[] out = new float[2];
+            for (int j = 0, index = 0; j < height; j++) {
+                final double Y = y0 + j * step;
+                for (int i = 0; i < width; i++, index++) {
+                    getF1F2(x0 + i * step, Y, out);
+                    f1[index] = out[0];
+                    if (f2 != null) {
+                        f2[index] = out[1];
+                    }
+                }
+            }
+            return;
+        }
+        final int[] cellXs = new int[width];
+        final float[] fractionsX = new float[width];
+        for (int i = 0; i < width; i++) {
+            final double X = x0 + i * step;
+            cellXs[i] = (int) Math.floor(X);
+            fractionsX[i] = (float) (X - cellXs[i]);
+        }
+        // The feature points of five rows of cells around the current row of
+        // cells, for all cells within reach of the columns
+        final int firstCellX = cellXs[0] - 2, cellCount = cellXs[width - 1] + 2 - firstCellX + 1;
+        final float[] pointsX = new float[5 * cellCount], pointsY = new float[5 * cellCount];
+        int cachedCellY = Integer.MIN_VALUE;
+        for (int j = 0; j < height; j++) {
+            final double Y = y0 + j * step;
+            final int cy = (int) Math.floor(Y);
+            final float fy = (float) (Y - cy);
+            if (cy != cachedCellY) {
+                for (int row = 0; row < 5; row++) {
+                    for (int cell = 0; cell < cellCount; cell++) {
+                        final long hash = hash(firstCellX + cell, cy + row - 2);
+                        pointsX[row * cellCount + cell] = offset(hash, 0);
+                        pointsY[row * cellCount + cell] = offset(hash, 1);
+                    }
+                }
+                cachedCellY = cy;
+            }
+            for (int i = 0, index = j * width; i < width; i++, index++) {
+                final float fx = fractionsX[i];
+                final int cellOffset = cellXs[i] - firstCellX;
+                float d1 = Float.MAX_VALUE, d2 = Float.MAX_VALUE;
+                for (int dy = -2; dy <= 2; dy++) {
+                    final float gapY = gap(dy, fy);
+                    final int rowOffset = (dy + 2) * cellCount + cellOffset;
+                    for (int dx = -2; dx <= 2; dx++) {
+                        final float gapX = gap(dx, fx);
+                        if (Math.fma(gapX, gapX, gapY * gapY) >= d2) {
+                            continue;
+                        }
+                        final float distX = dx + pointsX[rowOffset + dx] - fx, distY = dy + pointsY[rowOffset + dx] - fy;
+                        final float distance = Math.fma(distX, distX, distY * distY);
+                        if (distance < d1) {
+                            d2 = d1;
+                            d1 = distance;
+                        } else if (distance < d2) {
+                            d2 = distance;
+                        }
+                    }
+                }
+                f1[index] = (float) Math.sqrt(d1);
+                if (f2 != null) {
+                    f2[index] = (float) Math.sqrt(d2);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the feature point of a two dimensional cell.
+     *
+     * @param cx The X coordinate of the cell.
+     * @param cy The Y coordinate of the cell.
+     * @param out The array in which to store the X and Y coordinates of the
+     *            feature point.
+     */
+    void getFeaturePoint(int cx, int cy, double[] out) {
+        final long hash = hash(cx, cy);
+        out[0] = cx + (double) offset(hash, 0);
+        out[1] = cy + (double) offset(hash, 1);
+    }
+
+    /**
+     * Get the feature point of a three dimensional cell.
+     *
+     * @param cx The X coordinate of the cell.
+     * @param cy The Y coordinate of the cell.
+     * @param cz The Z coordinate of the cell.
+     * @param out The array in which to store the X, Y and Z coordinates of the
+     *            feature point.
+     */
+    void getFeaturePoint(int cx, int cy, int cz, double[] out) {
+        final long hash = hash(cx, cy, cz);
+        out[0] = cx + (double) offset(hash, 0);
+        out[1] = cy + (double) offset(hash, 1);
+        out[2] = cz + (double) offset(hash, 2);
+    }
+
+    /**
+     * Hash the seed and the coordinates of a two dimensional cell.
+     */
+    private long hash(int cx, int cy) {
+        return mix(seed ^ (cx * PRIME_X) ^ (cy * PRIME_Y));
+    }
+
+    /**
+     * Hash the seed and the coordinates of a three dimensional cell.
+     */
+    private long hash(int cx, int cy, int cz) {
+        return mix(seed ^ (cx * PRIME_X) ^ (cy * PRIME_Y) ^ (cz * PRIME_Z));
+    }
+
+    /**
+     * Get the offset along one axis of the feature point of a cell from the
+     * cell origin, from the hash of the cell. Each axis uses a different 21
+     * bits of the hash.
+     *
+     * @return The offset, between 0.0 (inclusive) and 1.0 (exclusive).
+     */
+    private static float offset(long hash, int axis) {
+        return ((hash >>> (axis * 21)) & 0x1FFFFF) * (1.0f / 0x200000);
+    }
+
+    /**
+     * Get the distance along one axis from a point in cell 0 to the nearest
+     * edge of the cell with the specified relative coordinate.
+     */
+    private static float gap(int cellOffset, float fraction) {
+        return (cellOffset < 0) ? fraction - (cellOffset + 1) : ((cellOffset > 0) ? cellOffset - fraction : 0.0f);
+    }
+
+    /**
+     * The MurmurHash3 64 bit finaliser, which spreads every input bit over all
+     * output bits.
+     */
+    private static long mix(long h) {
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        h = (h ^ (h >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    private final long seed;
+
+    private static final long PRIME_X = 0x9E3779B97F4A7C15L, PRIME_Y = 0xC2B2AE3D27D4EB4FL, PRIME_Z = 0x165667B19E3779F9L;
+
+    @Serial
+    private static final long serialVersionUID = 1L;
+}
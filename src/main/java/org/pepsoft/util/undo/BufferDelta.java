@@ -0,0 +1,157 @@
+package org.pepsoft.util.undo;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * A reverse delta between two versions of a primitive array buffer: the runs
+ * of elements of the older version which differ from the newer version. The
+ * older version can be rebuilt from the newer version by applying the delta to
+ * a copy of it. Runs which are separated by only a few unchanged elements are
+ * merged, to keep the number of runs down.
+ *
+ * <p>Instances are immutable.
+ *
+ * @author pepijn
+ */
+final class BufferDelta {
+    private BufferDelta(int[] runs, Object values) {
+        this.runs = runs;
+        this.values = values;
+    }
+
+    /**
+     * Rebuild the older version of the buffer from the newer version, in
+     * place.
+     *
+     * @param buffer A copy of the newer version of the buffer, which will be
+     *               turned into the older version.
+     */
+    void applyTo(Object buffer) {
+        for (int i = 0, offset = 0; i < runs.length; i += 2) {
+            final int runLength = runs[i + 1] - runs[i];
+            System.arraycopy(values, offset, buffer, runs[i], runLength);
+            offset += runLength;
+        }
+    }
+
+    /**
+     * Estimate the memory used by this delta.
+     *
+     * @return The estimated size of this delta in bytes.
+     */
+    long estimateSize() {
+        return OBJECT_OVERHEAD + UndoManager.estimateSize(runs) + UndoManager.estimateSize(values);
+    }
+
+    /**
+     * Create a reverse delta between two versions of a buffer, if they are
+     * primitive arrays of the same type and length, and the delta would be
+     * meaningfully smaller than the older version.
+     *
+     * @param older The older version of the buffer.
+     * @param newer The newer version of the buffer.
+     * @return The delta, or {@code null} if the versions are not suitable or
+     * too many elements have changed.
+     */
+    static BufferDelta create(Object older, Object newer) {
+        if ((older == null) || (newer == null) || (older.getClass() != newer.getClass())
+                || (! older.getClass().isArray()) || (! older.getClass().getComponentType().isPrimitive())
+                || (older.getClass() == boolean[].class) || (older.getClass() == char[].class)) {
+            return null;
+        }
+        final int length = Array.getLength(older);
+        if (Array.getLength(newer) != length) {
+            return null;
+        }
+        final int maxChangedElements = (int) (length * MAX_CHANGED_FRACTION);
+        int[] runs = new int[16];
+        int runCount = 0, changedElements = 0, position = 0;
+        while (position < length) {
+            final int mismatch = mismatch(older, newer, position, length);
+            if (mismatch == -1) {
+                break;
+            }
+            final int start = position + mismatch;
+            // Extend the run until it is followed by at least MIN_GAP
+            // unchanged elements
+            int end = start + 1;
+            while (end < length) {
+                final int gapMismatch = mismatch(older, newer, end, Math.min(end + MIN_GAP, length));
+                if (gapMismatch == -1) {
+                    break;
+                }
+                end += gapMismatch + 1;
+            }
+            changedElements += end - start;
+            if (changedElements > maxChangedElements) {
+                return null;
+            }
+            if (runCount * 2 == runs.length) {
+                runs = Arrays.copyOf(runs, runs.length * 2);
+            }
+            runs[runCount * 2] = start;
+            runs[runCount * 2 + 1] = end;
+            runCount++;
+            position = end;
+        }
+        runs = Arrays.copyOf(runs, runCount * 2);
+        final Object values = Array.newInstance(older.getClass().getComponentType(), changedElements);
+        for (int i = 0, offset = 0; i < runs.length; i += 2) {
+            final int runLength = runs[i + 1] - runs[i];
+            System.arraycopy(older, runs[i], values, offset, runLength);
+            offset += runLength;
+        }
+        return new BufferDelta(runs, values);
+    }
+
+    /**
+     * Find the first index in a range at which two primitive arrays of the
+     * same type differ.
+     *
+     * @return The index relative to {@code from}, or -1 if there is no
+     * difference in the range.
+     */
+    private static int mismatch(Object a, Object b, int from, int to) {
+        if (a instanceof byte[]) {
+            return Arrays.mismatch((byte[]) a, from, to, (byte[]) b, from, to);
+        } else if (a instanceof short[]) {
+            return Arrays.mismatch((short[]) a, from, to, (short[]) b, from, to);
+        } else if (a instanceof int[]) {
+            return Arrays.mismatch((int[]) a, from, to, (int[]) b, from, to);
+        } else if (a instanceof long[]) {
+            return Arrays.mismatch((long[]) a, from, to, (long[]) b, from, to);
+        } else if (a instanceof float[]) {
+            return Arrays.mismatch((float[]) a, from, to, (float[]) b, from, to);
+        } else if (a instanceof double[]) {
+            return Arrays.mismatch((double[]) a, from, to, (double[]) b, from, to);
+        } else {
+            throw new IllegalArgumentException("Unsupported buffer type " + a.getClass());
+        }
+    }
+
+    /**
+     * The start (inclusive) and end (exclusive) indices of the runs of changed
+     * elements.
+     */
+    private final int[] runs;
+
+    /**
+     * The older values of the changed elements, for all runs consecutively.
+     */
+    private final Object values;
+
+    /**
+     * The minimum number of unchanged elements between two runs for them to
+     * be stored as separate runs.
+     */
+    private static final int MIN_GAP = 8;
+
+    /**
+     * The maximum fraction of the elements which may have changed for a delta
+     * to be created. Above this the older version is kept in full.
+     */
+    private static final float MAX_CHANGED_FRACTION = 0.5f;
+
+    private static final long OBJECT_OVERHEAD = 16L;
+}
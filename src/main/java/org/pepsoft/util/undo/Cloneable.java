@@ -16,4 +16,16 @@ public interface Cloneable<T> extends java.lang.Cloneable {
      * @return A deep copy of the object.
      */
     T clone();
+
+    /**
+     * Estimate the memory used by the object, including the state which would
+     * be copied by {@link #clone()}, for the memory budget of an
+     * {@link UndoManager}. Should be cheap to invoke.
+     *
+     * @return The estimated size of the object in bytes, or -1 if it is not
+     * known, in which case the object is counted as a bare object.
+     */
+    default long estimateSize() {
+        return -1L;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,144 @@
+package org.pepsoft.util.undo;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A minimal map with weakly referenced keys which can safely be read by
+ * multiple threads concurrently, unlike {@link java.util.WeakHashMap}, of
+ * which even {@code get()} modifies the internal state. Like
+ * {@code WeakHashMap}, and unlike the weak key maps of Guava, keys are compared
+ * with {@link Object#equals(Object)} rather than by identity. {@code null}
+ * values are supported, and so is a {@code null} key, which, as in
+ * {@code WeakHashMap}, is never removed automatically.
+ *
+ * <p>Entries of which the key has been garbage collected are removed when the
+ * map is next modified, or checked for being empty.
+ *
+ * @author pepijn
+ */
+final class ConcurrentWeakKeyMap<K, V> {
+    /**
+     * Get the value for a key.
+     *
+     * @return The value for the key, or {@code null} if there is no entry for
+     * the key or its value is {@code null}.
+     */
+    @SuppressWarnings("unchecked")
+    V get(K key) {
+        final Object value = map.get(lookupKey(key));
+        return (value == NULL_VALUE) ? null : (V) value;
+    }
+
+    boolean containsKey(K key) {
+        return map.containsKey(lookupKey(key));
+    }
+
+    void put(K key, V value) {
+        expungeStaleEntries();
+        map.put((key != null) ? new WeakKey<>(key, queue) : NULL_KEY, (value != null) ? value : NULL_VALUE);
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(K key) {
+        expungeStaleEntries();
+        final Object value = map.remove(lookupKey(key));
+        return (value == NULL_VALUE) ? null : (V) value;
+    }
+
+    void clear() {
+        map.clear();
+        // Stale entries are no longer in the map, so the queue can simply be
+        // drained
+        while (queue.poll() != null) {
+            // Do nothing
+        }
+    }
+
+    boolean isEmpty() {
+        expungeStaleEntries();
+        return map.isEmpty();
+    }
+
+    private static Object lookupKey(Object key) {
+        return (key != null) ? new LookupKey(key) : NULL_KEY;
+    }
+
+    private void expungeStaleEntries() {
+        for (Reference<? extends K> reference = queue.poll(); reference != null; reference = queue.poll()) {
+            map.remove(reference);
+        }
+    }
+
+    private final ConcurrentHashMap<Object, Object> map = new ConcurrentHashMap<>();
+    private final ReferenceQueue<K> queue = new ReferenceQueue<>();
+
+    private static final Object NULL_KEY = new Object(), NULL_VALUE = new Object();
+
+    /**
+     * A weak reference to a key, which is equal to another weak key or a
+     * lookup key if their keys are equal, or to itself after the key has been
+     * garbage collected.
+     */
+    private static final class WeakKey<K> extends WeakReference<K> {
+        WeakKey(K key, ReferenceQueue<K> queue) {
+            super(key, queue);
+            hashCode = key.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            final Object key = get();
+            if (key == null) {
+                return false;
+            } else if (o instanceof WeakKey) {
+                return key.equals(((WeakKey<?>) o).get());
+            } else if (o instanceof LookupKey) {
+                return key.equals(((LookupKey) o).key);
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        private final int hashCode;
+    }
+
+    /**
+     * A strong wrapper of a key for looking up entries.
+     */
+    private static final class LookupKey {
+        LookupKey(Object key) {
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            } else if (o instanceof LookupKey) {
+                return key.equals(((LookupKey) o).key);
+            } else if (o instanceof WeakKey) {
+                return key.equals(((WeakKey<?>) o).get());
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode();
+        }
+
+        private final Object key;
+    }
+}
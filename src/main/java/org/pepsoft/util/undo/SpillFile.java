@@ -0,0 +1,286 @@
+package org.pepsoft.util.undo;
+
+import org.pepsoft.util.mdc.MDCCapturingRuntimeException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A temporary file to which primitive array buffers can be moved off the heap,
+ * and from which they can be read back with positional reads and writes. The
+ * space of buffers which are no longer needed is kept in a free list and
+ * reused for later buffers, and the file is truncated when more than half of
+ * it is free space at the end, so that it does not keep growing while buffers
+ * are written and released. The file is deleted when it is closed or when the
+ * VM exits.
+ *
+ * <p>Not thread safe.
+ *
+ * @author pepijn
+ */
+final class SpillFile {
+    /**
+     * Determine whether a buffer can be written to a spill file.
+     */
+    static boolean isSpillable(Object buffer) {
+        return ((buffer instanceof byte[]) || (buffer instanceof short[]) || (buffer instanceof int[])
+                || (buffer instanceof long[]) || (buffer instanceof float[]) || (buffer instanceof double[])
+                || (buffer instanceof char[]))
+                && (Array.getLength(buffer) > 0);
+    }
+
+    /**
+     * Write a buffer to the file.
+     *
+     * @param buffer The buffer to write. Must be {@link #isSpillable(Object)
+     *               spillable}.
+     * @return The handle with which to read the buffer back.
+     */
+    Entry write(Object buffer) {
+        final long size = UndoManager.estimateSize(buffer) - ARRAY_OVERHEAD;
+        final ByteBuffer byteBuffer;
+        if (buffer instanceof byte[]) {
+            byteBuffer = ByteBuffer.wrap((byte[]) buffer);
+        } else {
+            byteBuffer = ByteBuffer.allocate((int) size).order(ByteOrder.nativeOrder());
+            if (buffer instanceof short[]) {
+                byteBuffer.asShortBuffer().put((short[]) buffer);
+            } else if (buffer instanceof int[]) {
+                byteBuffer.asIntBuffer().put((int[]) buffer);
+            } else if (buffer instanceof long[]) {
+                byteBuffer.asLongBuffer().put((long[]) buffer);
+            } else if (buffer instanceof float[]) {
+                byteBuffer.asFloatBuffer().put((float[]) buffer);
+            } else if (buffer instanceof double[]) {
+                byteBuffer.asDoubleBuffer().put((double[]) buffer);
+            } else if (buffer instanceof char[]) {
+                byteBuffer.asCharBuffer().put((char[]) buffer);
+            } else {
+                throw new IllegalArgumentException("Unsupported buffer type " + buffer.getClass());
+            }
+        }
+        final long offset = allocate(size);
+        try {
+            if (channel == null) {
+                final Path file = Files.createTempFile("undo", ".spill");
+                file.toFile().deleteOnExit();
+                channel = FileChannel.open(file, READ, WRITE, DELETE_ON_CLOSE);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Created undo spill file " + file);
+                }
+            }
+            for (long writeOffset = offset; byteBuffer.hasRemaining(); ) {
+                writeOffset += channel.write(byteBuffer, writeOffset);
+            }
+        } catch (IOException e) {
+            throw new MDCCapturingRuntimeException("I/O error while writing buffer to undo spill file", e);
+        }
+        final Entry entry = new Entry(this, buffer.getClass(), offset, size);
+        liveBytes += size;
+        return entry;
+    }
+
+    /**
+     * Read a buffer back from the file.
+     *
+     * @param entry The handle of the buffer.
+     * @return A new copy of the buffer.
+     */
+    Object read(Entry entry) {
+        final Class<?> type = entry.type;
+        final ByteBuffer byteBuffer = (type == byte[].class)
+                ? ByteBuffer.wrap(new byte[(int) entry.size])
+                : ByteBuffer.allocate((int) entry.size).order(ByteOrder.nativeOrder());
+        try {
+            for (long offset = entry.offset; byteBuffer.hasRemaining(); ) {
+                final int bytesRead = channel.read(byteBuffer, offset);
+                if (bytesRead < 0) {
+                    throw new EOFException("Unexpected end of undo spill file");
+                }
+                offset += bytesRead;
+            }
+        } catch (IOException e) {
+            throw new MDCCapturingRuntimeException("I/O error while reading buffer from undo spill file", e);
+        }
+        byteBuffer.flip();
+        if (type == byte[].class) {
+            return byteBuffer.array();
+        } else if (type == short[].class) {
+            final short[] buffer = new short[(int) (entry.size / 2)];
+            byteBuffer.asShortBuffer().get(buffer);
+            return buffer;
+        } else if (type == int[].class) {
+            final int[] buffer = new int[(int) (entry.size / 4)];
+            byteBuffer.asIntBuffer().get(buffer);
+            return buffer;
+        } else if (type == long[].class) {
+            final long[] buffer = new long[(int) (entry.size / 8)];
+            byteBuffer.asLongBuffer().get(buffer);
+            return buffer;
+        } else if (type == float[].class) {
+            final float[] buffer = new float[(int) (entry.size / 4)];
+            byteBuffer.asFloatBuffer().get(buffer);
+            return buffer;
+        } else if (type == double[].class) {
+            final double[] buffer = new double[(int) (entry.size / 8)];
+            byteBuffer.asDoubleBuffer().get(buffer);
+            return buffer;
+        } else {
+            final char[] buffer = new char[(int) (entry.size / 2)];
+            byteBuffer.asCharBuffer().get(buffer);
+            return buffer;
+        }
+    }
+
+    /**
+     * Indicate that a buffer is no longer needed, so that its space can be
+     * reused.
+     *
+     * @param entry The handle of the buffer.
+     */
+    void release(Entry entry) {
+        liveBytes -= entry.size;
+        if (liveBytes == 0) {
+            freeExtents.clear();
+            position = 0;
+        } else {
+            long offset = entry.offset, size = entry.size;
+            // Merge with the adjacent free extents, if any
+            final Long nextSize = freeExtents.remove(offset + size);
+            if (nextSize != null) {
+                size += nextSize;
+            }
+            final Map.Entry<Long, Long> previousExtent = freeExtents.lowerEntry(offset);
+            if ((previousExtent != null) && (previousExtent.getKey() + previousExtent.getValue() == offset)) {
+                freeExtents.remove(previousExtent.getKey());
+                offset = previousExtent.getKey();
+                size += previousExtent.getValue();
+            }
+            if (offset + size == position) {
+                position = offset;
+            } else {
+                freeExtents.put(offset, size);
+            }
+        }
+        try {
+            if (channel.size() > 2 * position) {
+                channel.truncate(position);
+            }
+        } catch (IOException e) {
+            throw new MDCCapturingRuntimeException("I/O error while truncating undo spill file", e);
+        }
+    }
+
+    /**
+     * Get the total size of the buffers in the file which are still live.
+     */
+    long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Get the current size of the file, including the space of buffers which
+     * are no longer needed but has not been reused or truncated yet.
+     */
+    long getFileSize() {
+        try {
+            return (channel != null) ? channel.size() : 0L;
+        } catch (IOException e) {
+            throw new MDCCapturingRuntimeException("I/O error while getting size of undo spill file", e);
+        }
+    }
+
+    /**
+     * Find space for a buffer: the first free extent which is large enough,
+     * or else the end of the file.
+     */
+    private long allocate(long size) {
+        Map.Entry<Long, Long> fittingExtent = null;
+        for (Map.Entry<Long, Long> extent: freeExtents.entrySet()) {
+            if (extent.getValue() >= size) {
+                fittingExtent = extent;
+                break;
+            }
+        }
+        if (fittingExtent != null) {
+            final long offset = fittingExtent.getKey(), extentSize = fittingExtent.getValue();
+            freeExtents.remove(offset);
+            if (extentSize > size) {
+                freeExtents.put(offset + size, extentSize - size);
+            }
+            return offset;
+        } else {
+            final long offset = position;
+            position += size;
+            return offset;
+        }
+    }
+
+    /**
+     * Close and delete the file. Any entries still in existence become
+     * invalid.
+     */
+    void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new MDCCapturingRuntimeException("I/O error while closing undo spill file", e);
+            }
+            channel = null;
+            position = 0;
+            liveBytes = 0;
+            freeExtents.clear();
+        }
+    }
+
+    private FileChannel channel;
+    /**
+     * The end of the space in use, beyond which there are no live buffers.
+     */
+    private long position;
+    private long liveBytes;
+    /**
+     * The extents before {@link #position} which are not in use, by offset.
+     * Adjacent free extents are always merged.
+     */
+    private final TreeMap<Long, Long> freeExtents = new TreeMap<>();
+
+    private static final long ARRAY_OVERHEAD = UndoManager.estimateSize(new byte[0]);
+    private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(SpillFile.class);
+
+    /**
+     * The handle of a buffer which has been written to a spill file, which
+     * takes its place in the undo history.
+     */
+    static final class Entry {
+        private Entry(SpillFile spillFile, Class<?> type, long offset, long size) {
+            this.spillFile = spillFile;
+            this.type = type;
+            this.offset = offset;
+            this.size = size;
+        }
+
+        Object read() {
+            return spillFile.read(this);
+        }
+
+        void release() {
+            spillFile.release(this);
+        }
+
+        private final SpillFile spillFile;
+        private final Class<?> type;
+        private final long offset, size;
+    }
+}
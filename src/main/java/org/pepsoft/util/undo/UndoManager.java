@@ -9,6 +9,7 @@ import org.pepsoft.util.MemoryUtils;
 
 import javax.swing.*;
 import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.*;
 
@@ -37,8 +38,34 @@ public class UndoManager {
     }
 
     public UndoManager(Action undoAction, Action redoAction, int maxFrames) {
+        this(undoAction, redoAction, maxFrames, Long.MAX_VALUE);
+    }
+
+    /**
+     * Create an undo manager with a memory budget. Whenever the estimated
+     * size of the buffers in the history exceeds the budget, the oldest
+     * frames are discarded until it no longer does, or only the current frame
+     * is left. To limit the history by memory only, specify
+     * {@link Integer#MAX_VALUE} as the maximum number of frames.
+     *
+     * <p>The size of the history is estimated incrementally as buffers are
+     * added and copied. Primitive arrays and {@link BitSet}s are sized
+     * exactly, {@link Cloneable} implementations according to
+     * {@link Cloneable#estimateSize()}, and other buffers are counted as a
+     * bare object.
+     *
+     * @param undoAction The action to enable and disable according to whether
+     *                   an undo is possible. May be {@code null}.
+     * @param redoAction The action to enable and disable according to whether
+     *                   a redo is possible. May be {@code null}.
+     * @param maxFrames The maximum number of frames to keep.
+     * @param maxDataSize The maximum estimated size of the buffers in the
+     *                    history, in bytes.
+     */
+    public UndoManager(Action undoAction, Action redoAction, int maxFrames, long maxDataSize) {
         this.maxFrames = maxFrames;
-        history.add(new WeakHashMap<>());
+        this.maxDataSize = maxDataSize;
+        history.add(new Frame(0));
         registerActions(undoAction, redoAction);
     }
 
@@ -58,6 +85,57 @@ public class UndoManager {
         return maxFrames;
     }
 
+    public long getMaxDataSize() {
+        return maxDataSize;
+    }
+
+    public synchronized int getMaxInMemoryFrames() {
+        return maxInMemoryFrames;
+    }
+
+    /**
+     * Set the number of most recent frames to keep entirely on the heap. On
+     * each save point, the versions of primitive array buffers in older
+     * frames which have been superseded by a version in a later frame are
+     * moved to a temporary file, from which they are read back when they are
+     * needed again, for instance after an undo. Together with a high maximum
+     * number of frames this allows a very deep undo history without using
+     * much heap. The temporary file is deleted when the VM exits.
+     *
+     * @param maxInMemoryFrames The number of most recent frames to keep
+     *                          entirely on the heap, or
+     *                          {@link Integer#MAX_VALUE} to never move
+     *                          buffers to disk. The default is
+     *                          {@link Integer#MAX_VALUE}.
+     */
+    public synchronized void setMaxInMemoryFrames(int maxInMemoryFrames) {
+        if (maxInMemoryFrames < 0) {
+            throw new IllegalArgumentException("maxInMemoryFrames " + maxInMemoryFrames);
+        }
+        this.maxInMemoryFrames = maxInMemoryFrames;
+    }
+
+    public synchronized boolean isDeltaCompression() {
+        return deltaCompression;
+    }
+
+    /**
+     * Set whether older versions of buffers should be stored as deltas. When
+     * enabled, on each save point the previous version of each buffer which
+     * was edited in the frame being closed is replaced with a reverse delta
+     * containing only the elements that changed, from which it is rebuilt
+     * when it is needed again, for instance after an undo. This considerably
+     * reduces the memory needed per frame for large buffers of which only
+     * small parts are edited at a time. Only primitive arrays are stored as
+     * deltas; other buffers are always stored in full.
+     *
+     * @param deltaCompression Whether older versions of buffers should be
+     *                         stored as deltas.
+     */
+    public synchronized void setDeltaCompression(boolean deltaCompression) {
+        this.deltaCompression = deltaCompression;
+    }
+
     /**
      * Arm a save point. It will be executed the next time a buffer is requested
      * for editing. Arming a save point instead of executing it immediately
@@ -89,8 +167,18 @@ public class UndoManager {
         synchronized (this) {
             clearRedo();
 
+            releaseCollectedSpillEntries();
+
+            if (deltaCompression) {
+                compressPreviousVersions();
+            }
+
+            // Buffers which are not primitive arrays may have changed size
+            // while they were being edited
+            updateDataSize(getLastFrame());
+
             // Add a new frame
-            history.add(new WeakHashMap<>());
+            history.add(new Frame(getLastFrame().id + 1));
 
             // Update the current frame pointer
             currentFrame++;
@@ -98,6 +186,10 @@ public class UndoManager {
             // If the max undos has been reached, throw away the oldest
             pruneHistory();
 
+            if (maxInMemoryFrames < history.size()) {
+                spillOldFrames();
+            }
+
             // Clear cache
             writeableBufferCache.clear();
 
@@ -245,6 +337,11 @@ public class UndoManager {
         updateSnapshots(-deletedFrames);
         updateActions();
         savePointArmed = false;
+        releaseCollectedSpillEntries();
+        if ((spillFile != null) && (spillFile.getLiveBytes() == 0)) {
+            spillFile.close();
+            spillFile = null;
+        }
         if (logger.isTraceEnabled()) {
             dumpBuffer();
         }
@@ -257,8 +354,14 @@ public class UndoManager {
         // Make sure there is no history after the current frame (which there
         // might be if an undo has been performed)
         if (currentFrame < (history.size() - 1)) {
+            materialiseCurrentVersions();
             do {
-                history.removeLast();
+                final Frame frame = history.remove(history.size() - 1);
+                for (Map.Entry<BufferKey<?>, Object> entry: frame.entrySet()) {
+                    removeFromIndex(entry.getKey(), frame.id);
+                    discard(entry.getValue());
+                }
+                dataSize -= frame.dataSize;
             } while (currentFrame < (history.size() - 1));
             updateSnapshots(0);
             updateActions();
@@ -272,7 +375,7 @@ public class UndoManager {
     public synchronized <T> void addBuffer(BufferKey<T> key, T buffer, UndoListener listener) {
         clearRedo();
         
-        history.getLast().put(key, buffer);
+        putBuffer(getLastFrame(), key, buffer);
         writeableBufferCache.put(key, buffer);
         if (listener != null) {
             keyListeners.put(key, listener);
@@ -285,8 +388,19 @@ public class UndoManager {
     public synchronized void removeBuffer(BufferKey<?> key) {
         writeableBufferCache.remove(key);
         readOnlyBufferCache.remove(key);
-        for (Map<BufferKey<?>, Object> historyFrame: history) {
-            historyFrame.remove(key);
+        final FrameIndex frameIndex = frameIndices.remove(key);
+        if (frameIndex != null) {
+            final int firstId = history.get(0).id;
+            for (int id = frameIndex.floor(Integer.MAX_VALUE); id != -1; id = frameIndex.floor(id - 1)) {
+                final Frame historyFrame = history.get(id - firstId);
+                final Object buffer = historyFrame.remove(key);
+                if (buffer != null) {
+                    final long size = estimateSize(buffer);
+                    historyFrame.dataSize -= size;
+                    dataSize -= size;
+                    discard(buffer);
+                }
+            }
         }
         keyListeners.remove(key);
         if (logger.isTraceEnabled()) {
@@ -294,8 +408,44 @@ public class UndoManager {
         }
     }
 
+    /**
+     * Get a buffer for reading. May be invoked concurrently from multiple
+     * threads. Buffers which are already cached, which is the case for every
+     * buffer which has been requested since the last undo or redo, are
+     * returned without locking, so that threads reading buffers do not block
+     * each other or wait for save points or edits on other buffers. The
+     * caches are only modified while holding the lock, and buffers which are
+     * not cached are looked up in the history while holding it.
+     *
+     * @param key The key of the buffer.
+     * @return The current version of the buffer, or {@code null} if there is
+     * no buffer with the specified key.
+     */
     @SuppressWarnings("unchecked")
-    public synchronized <T> T getBuffer(BufferKey<T> key) {
+    public <T> T getBuffer(BufferKey<T> key) {
+        Object buffer = writeableBufferCache.get(key);
+        if (buffer != null) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("Getting buffer " + key + " for reading from writeable buffer cache");
+            }
+            return (T) buffer;
+        }
+        buffer = readOnlyBufferCache.get(key);
+        if (buffer != null) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("Getting buffer " + key + " for reading from read-only buffer cache");
+            }
+            return (T) buffer;
+        }
+        return getBufferFromHistory(key);
+    }
+
+    /**
+     * Get a buffer for reading while holding the lock. Checks the caches
+     * again, since they may have changed while waiting for the lock.
+     */
+    @SuppressWarnings("unchecked")
+    private synchronized <T> T getBufferFromHistory(BufferKey<T> key) {
         if (writeableBufferCache.containsKey(key)) {
             if (logger.isTraceEnabled()) {
                 logger.trace("Getting buffer " + key + " for reading from writeable buffer cache");
@@ -334,14 +484,17 @@ public class UndoManager {
                 }
                 T buffer = (T) readOnlyBufferCache.remove(key);
                 T copy = copyObject(buffer);
-                history.getLast().put(key, copy);
+                putBuffer(getLastFrame(), key, copy);
                 writeableBufferCache.put(key, copy);
+                if (dataSize > maxDataSize) {
+                    pruneHistory();
+                }
                 return copy;
             } else {
                 if (logger.isTraceEnabled()) {
                     logger.trace("Copying buffer " + key + " for writing from history");
                 }
-                Map<BufferKey<?>, Object> currentHistoryFrame = history.getLast();
+                Frame currentHistoryFrame = getLastFrame();
                 if (currentHistoryFrame.containsKey(key)) {
                     // TODO: this should never happen. Remove?
                     T buffer = (T) currentHistoryFrame.get(key);
@@ -352,8 +505,11 @@ public class UndoManager {
                     // it.
                     T buffer = findMostRecentCopy(key);
                     T copy = copyObject(buffer);
-                    currentHistoryFrame.put(key, copy);
+                    putBuffer(currentHistoryFrame, key, copy);
                     writeableBufferCache.put(key, copy);
+                    if (dataSize > maxDataSize) {
+                        pruneHistory();
+                    }
                     return copy;
                 }
             }
@@ -385,6 +541,28 @@ public class UndoManager {
     public synchronized long getDataSize() {
         return MemoryUtils.getSize(history, stopAt);
     }
+
+    /**
+     * Get the estimated size of the buffers in the history, as tracked
+     * incrementally for the memory budget. Unlike {@link #getDataSize()} this
+     * is cheap to invoke, and can be used for monitoring.
+     *
+     * @return The estimated size of the buffers in the history in bytes.
+     */
+    public synchronized long getEstimatedDataSize() {
+        return dataSize;
+    }
+
+    /**
+     * Get the size of the buffers which have been moved to disk. See
+     * {@link #setMaxInMemoryFrames(int)}.
+     *
+     * @return The size of the buffers which have been moved to disk in bytes.
+     */
+    public synchronized long getSpilledDataSize() {
+        releaseCollectedSpillEntries();
+        return (spillFile != null) ? spillFile.getLiveBytes() : 0L;
+    }
     
     private void updateSnapshots(int delta) {
         if (logger.isDebugEnabled()) {
@@ -412,13 +590,23 @@ public class UndoManager {
     }
     
     private void pruneHistory() {
+        if ((dataSize > maxDataSize) && (history.size() > 1)) {
+            // The frames silently drop buffers of which the key has been
+            // garbage collected, without the estimated sizes being updated,
+            // so recalculate them before discarding frames for memory which
+            // may already have been freed
+            history.forEach(this::updateDataSize);
+        }
         int deletedFrames = 0;
-        while (history.size() > maxFrames) {
+        while ((history.size() > maxFrames) || ((dataSize > maxDataSize) && (history.size() > 1))) {
             shrinkHistory();
             deletedFrames++;
         }
         if (deletedFrames > 0) {
             updateSnapshots(-deletedFrames);
+            // Frames may also be discarded for memory while a buffer is being
+            // copied for editing, after which there may be no undo left
+            updateActions();
         }
         if (logger.isTraceEnabled()) {
             dumpBuffer();
@@ -431,14 +619,20 @@ public class UndoManager {
         }
         
         // Remove oldest frame
-        Map<BufferKey<?>, Object> oldestFrame = history.removeFirst();
+        Frame oldestFrame = history.remove(0);
+        dataSize -= oldestFrame.dataSize;
 
         // Move all buffers from the previous oldest frame to the new
         // oldest frame, except the ones that already exist
-        Map<BufferKey<?>, Object> nextOldestFrame = history.getFirst();
-        oldestFrame.entrySet().stream()
-            .filter(entry -> !nextOldestFrame.containsKey(entry.getKey()))
-            .forEach(entry -> nextOldestFrame.put(entry.getKey(), entry.getValue()));
+        Frame nextOldestFrame = history.get(0);
+        for (Map.Entry<BufferKey<?>, Object> entry: oldestFrame.entrySet()) {
+            removeFromIndex(entry.getKey(), oldestFrame.id);
+            if (nextOldestFrame.containsKey(entry.getKey())) {
+                discard(entry.getValue());
+            } else {
+                putBuffer(nextOldestFrame, entry.getKey(), entry.getValue());
+            }
+        }
         
         if (currentFrame > 0) {
             currentFrame--;
@@ -451,15 +645,16 @@ public class UndoManager {
     
     @SuppressWarnings("unchecked")
     synchronized <T> T findMostRecentCopy(BufferKey<T> key, int frame) {
-        for (ListIterator<Map<BufferKey<?>, Object>> i = history.listIterator(frame + 1); i.hasPrevious(); ) {
-            Map<BufferKey<?>, Object> historyFrame = i.previous();
-            if (historyFrame.containsKey(key)) {
+        final FrameIndex frameIndex = frameIndices.get(key);
+        if (frameIndex != null) {
+            final int firstId = history.get(0).id, id = floorFrameId(key, frameIndex, firstId + frame);
+            if (id != -1) {
+                frame = id - firstId;
                 if (logger.isTraceEnabled()) {
                     logger.trace("Most recent copy of buffer " + key + " found in frame " + frame + " of history");
                 }
-                return (T) historyFrame.get(key);
+                return (T) resolve(key, history.get(frame).get(key), frame);
             }
-            frame--;
         }
         if (logger.isTraceEnabled()) {
             logger.trace("Buffer " + key + " not present in undo history");
@@ -467,16 +662,324 @@ public class UndoManager {
         return null;
     }
 
+    /**
+     * Estimate the memory used by a buffer or a delta, without inspecting it
+     * reflectively.
+     *
+     * @param buffer The buffer or delta.
+     * @return The estimated size of the buffer in bytes.
+     */
+    static long estimateSize(Object buffer) {
+        if (buffer == null) {
+            return 0L;
+        } else if (buffer instanceof BufferDelta) {
+            return ((BufferDelta) buffer).estimateSize();
+        } else if (buffer instanceof byte[]) {
+            return ARRAY_OVERHEAD + ((byte[]) buffer).length;
+        } else if (buffer instanceof short[]) {
+            return ARRAY_OVERHEAD + ((short[]) buffer).length * 2L;
+        } else if (buffer instanceof int[]) {
+            return ARRAY_OVERHEAD + ((int[]) buffer).length * 4L;
+        } else if (buffer instanceof long[]) {
+            return ARRAY_OVERHEAD + ((long[]) buffer).length * 8L;
+        } else if (buffer instanceof float[]) {
+            return ARRAY_OVERHEAD + ((float[]) buffer).length * 4L;
+        } else if (buffer instanceof double[]) {
+            return ARRAY_OVERHEAD + ((double[]) buffer).length * 8L;
+        } else if (buffer instanceof boolean[]) {
+            return ARRAY_OVERHEAD + ((boolean[]) buffer).length;
+        } else if (buffer instanceof char[]) {
+            return ARRAY_OVERHEAD + ((char[]) buffer).length * 2L;
+        } else if (buffer instanceof BitSet) {
+            return OBJECT_OVERHEAD + ARRAY_OVERHEAD + ((BitSet) buffer).size() / 8;
+        } else if (buffer instanceof Cloneable) {
+            final long size = ((Cloneable<?>) buffer).estimateSize();
+            return (size >= 0) ? size : OBJECT_OVERHEAD;
+        } else {
+            return OBJECT_OVERHEAD;
+        }
+    }
+
+    /**
+     * Replace the previous versions of the buffers in the last frame with
+     * reverse deltas against the versions in the last frame, where possible.
+     * Must be invoked when the last frame is about to be closed, since the
+     * buffers in it may no longer be modified after that.
+     */
+    private void compressPreviousVersions() {
+        final Frame lastFrame = getLastFrame();
+        final int firstId = history.get(0).id;
+        for (Map.Entry<BufferKey<?>, Object> entry: lastFrame.entrySet()) {
+            final Object newer = entry.getValue();
+            if (newer instanceof BufferDelta) {
+                continue;
+            }
+            final BufferKey<?> key = entry.getKey();
+            final int previousId = floorFrameId(key, frameIndices.get(key), lastFrame.id - 1);
+            if (previousId != -1) {
+                final Frame historyFrame = history.get(previousId - firstId);
+                final BufferDelta delta = BufferDelta.create(historyFrame.get(key), newer);
+                if (delta != null) {
+                    putBuffer(historyFrame, key, delta);
+                    if (logger.isTraceEnabled()) {
+                        logger.trace("Previous version of buffer " + key + " replaced with delta");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Prepare the frames up to and including the current frame for the frames
+     * after it being removed, after which the current frame is the last one
+     * and its buffers may be edited again:
+     *
+     * <ul>
+     *     <li>Rebuild the buffers which are stored as deltas against versions
+     *     in the frames after the current frame.
+     *     <li>Read the most recent versions as of the current frame back from
+     *     the spill file, since they are the versions which are edited and
+     *     read.
+     *     <li>Rebuild the previous versions of the buffers in the current
+     *     frame which are stored as deltas against them, since those deltas
+     *     would be invalidated by edits.
+     * </ul>
+     */
+    private void materialiseCurrentVersions() {
+        final Set<BufferKey<?>> seenKeys = new HashSet<>(), editableKeys = new HashSet<>(history.get(currentFrame).keySet());
+        int frame = currentFrame;
+        for (ListIterator<Frame> i = history.listIterator(currentFrame + 1); i.hasPrevious(); frame--) {
+            final Frame historyFrame = i.previous();
+            for (Map.Entry<BufferKey<?>, Object> entry: historyFrame.entrySet()) {
+                final BufferKey<?> key = entry.getKey();
+                final Object value = entry.getValue();
+                final boolean materialise;
+                if (seenKeys.add(key)) {
+                    // Only the most recent version of each buffer can be
+                    // stored against a later frame; older deltas are stored
+                    // against it
+                    materialise = (value instanceof BufferDelta) || (value instanceof SpillFile.Entry);
+                } else {
+                    materialise = editableKeys.remove(key) && (value instanceof BufferDelta);
+                }
+                if (materialise) {
+                    setBuffer(historyFrame, entry, resolve(key, value, frame));
+                    if (logger.isTraceEnabled()) {
+                        logger.trace("Buffer " + key + " in frame " + frame + " materialised");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the full buffer for a value from the history, by rebuilding it if
+     * it is stored as a delta.
+     *
+     * @param key The key of the buffer.
+     * @param value The value from the history.
+     * @param frame The index of the frame containing the value.
+     * @return The value if it is a full buffer, or else a new copy of the
+     * buffer rebuilt from the delta and the later versions of the buffer.
+     */
+    private Object resolve(BufferKey<?> key, Object value, int frame) {
+        if (value instanceof SpillFile.Entry) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("Reading buffer " + key + " in frame " + frame + " back from spill file");
+            }
+            return ((SpillFile.Entry) value).read();
+        } else if (! (value instanceof BufferDelta)) {
+            return value;
+        }
+        // Collect the chain of deltas up to the first later full version
+        final List<BufferDelta> deltas = new ArrayList<>();
+        deltas.add((BufferDelta) value);
+        Object buffer = null;
+        final FrameIndex frameIndex = frameIndices.get(key);
+        final int firstId = history.get(0).id;
+        for (int id = higherFrameId(key, frameIndex, firstId + frame); id != -1; id = higherFrameId(key, frameIndex, id)) {
+            final Object laterValue = history.get(id - firstId).get(key);
+            if (laterValue instanceof BufferDelta) {
+                deltas.add((BufferDelta) laterValue);
+            } else {
+                buffer = laterValue;
+                break;
+            }
+        }
+        if (buffer == null) {
+            throw new IllegalStateException("No later version of buffer " + key + " found to apply delta to");
+        }
+        // A buffer read back from the spill file is already a private copy
+        buffer = (buffer instanceof SpillFile.Entry) ? ((SpillFile.Entry) buffer).read() : copyObject(buffer);
+        for (int i = deltas.size() - 1; i >= 0; i--) {
+            deltas.get(i).applyTo(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Move the superseded versions of primitive array buffers in the frames
+     * older than the most recent {@link #maxInMemoryFrames} frames to the
+     * spill file. The most recent version of each buffer is kept on the heap,
+     * since it is needed whenever the buffer is read.
+     */
+    private void spillOldFrames() {
+        final int firstInMemoryFrame = history.size() - maxInMemoryFrames;
+        final Set<BufferKey<?>> laterKeys = new HashSet<>();
+        int frame = history.size() - 1;
+        for (ListIterator<Frame> i = history.listIterator(history.size()); i.hasPrevious(); frame--) {
+            final Frame historyFrame = i.previous();
+            if (frame < firstInMemoryFrame) {
+                for (Map.Entry<BufferKey<?>, Object> entry: historyFrame.entrySet()) {
+                    if (laterKeys.contains(entry.getKey()) && SpillFile.isSpillable(entry.getValue())) {
+                        if (spillFile == null) {
+                            spillFile = new SpillFile();
+                        }
+                        final SpillFile.Entry spillEntry = spillFile.write(entry.getValue());
+                        setBuffer(historyFrame, entry, spillEntry);
+                        spillReferences.put(spillEntry, new SpillReference(entry.getKey(), spillEntry, spillReferenceQueue));
+                        if (logger.isTraceEnabled()) {
+                            logger.trace("Buffer " + entry.getKey() + " in frame " + frame + " moved to spill file");
+                        }
+                    }
+                }
+            }
+            laterKeys.addAll(historyFrame.keySet());
+        }
+    }
+
+    /**
+     * Release the resources held by a value which is being removed from the
+     * history.
+     */
+    private void discard(Object value) {
+        if (value instanceof SpillFile.Entry) {
+            ((SpillFile.Entry) value).release();
+            final Reference<?> reference = spillReferences.remove(value);
+            if (reference != null) {
+                reference.clear();
+            }
+        }
+    }
+
+    /**
+     * Release the space in the spill file of the buffers which have been
+     * silently dropped from the history because their key was garbage
+     * collected.
+     */
+    private void releaseCollectedSpillEntries() {
+        for (Reference<?> reference = spillReferenceQueue.poll(); reference != null; reference = spillReferenceQueue.poll()) {
+            final SpillFile.Entry spillEntry = ((SpillReference) reference).spillEntry;
+            if (spillReferences.remove(spillEntry) != null) {
+                spillEntry.release();
+            }
+        }
+    }
+
+    /**
+     * Put a buffer in a history frame, and update the estimated sizes of the
+     * frame and the history.
+     */
+    private void putBuffer(Frame frame, BufferKey<?> key, Object buffer) {
+        if (! frame.containsKey(key)) {
+            frameIndices.computeIfAbsent(key, k -> new FrameIndex()).add(frame.id);
+        }
+        final Object previousBuffer = frame.put(key, buffer);
+        final long sizeIncrease = estimateSize(buffer) - estimateSize(previousBuffer);
+        frame.dataSize += sizeIncrease;
+        dataSize += sizeIncrease;
+        if (previousBuffer != buffer) {
+            discard(previousBuffer);
+        }
+    }
+
+    /**
+     * Get the id of the most recent frame up to and including a particular
+     * frame which contains a version of a buffer. The frames silently drop
+     * buffers of which the key has been garbage collected, while the index
+     * may be keyed by another, equal, key. Index entries for frames which no
+     * longer contain the buffer are therefore skipped, and removed.
+     *
+     * @return The id of the frame, or -1 if there is none.
+     */
+    private int floorFrameId(BufferKey<?> key, FrameIndex frameIndex, int id) {
+        final int firstId = history.get(0).id;
+        for (int candidateId = frameIndex.floor(id); candidateId >= firstId; candidateId = frameIndex.floor(candidateId - 1)) {
+            if (history.get(candidateId - firstId).containsKey(key)) {
+                return candidateId;
+            }
+            frameIndex.remove(candidateId);
+        }
+        return -1;
+    }
+
+    /**
+     * Get the id of the first frame after a particular frame which contains a
+     * version of a buffer, skipping and removing index entries for frames
+     * which no longer contain it. See
+     * {@link #floorFrameId(BufferKey, FrameIndex, int)}.
+     *
+     * @return The id of the frame, or -1 if there is none.
+     */
+    private int higherFrameId(BufferKey<?> key, FrameIndex frameIndex, int id) {
+        final int firstId = history.get(0).id;
+        for (int candidateId = frameIndex.higher(id); candidateId != -1; candidateId = frameIndex.higher(candidateId)) {
+            if (history.get(candidateId - firstId).containsKey(key)) {
+                return candidateId;
+            }
+            frameIndex.remove(candidateId);
+        }
+        return -1;
+    }
+
+    /**
+     * Remove a frame from the index of frames containing a buffer.
+     */
+    private void removeFromIndex(BufferKey<?> key, int id) {
+        final FrameIndex frameIndex = frameIndices.get(key);
+        if ((frameIndex != null) && frameIndex.remove(id) && frameIndex.isEmpty()) {
+            frameIndices.remove(key);
+        }
+    }
+
+    private Frame getLastFrame() {
+        return history.get(history.size() - 1);
+    }
+
+    /**
+     * Replace the buffer of an entry of a history frame, and update the
+     * estimated sizes of the frame and the history.
+     */
+    private void setBuffer(Frame frame, Map.Entry<BufferKey<?>, Object> entry, Object buffer) {
+        final Object previousBuffer = entry.setValue(buffer);
+        final long sizeIncrease = estimateSize(buffer) - estimateSize(previousBuffer);
+        frame.dataSize += sizeIncrease;
+        dataSize += sizeIncrease;
+        if (previousBuffer != buffer) {
+            discard(previousBuffer);
+        }
+    }
+
+    /**
+     * Estimate the size of a frame from scratch, and update the estimated
+     * size of the history accordingly.
+     */
+    private void updateDataSize(Frame frame) {
+        long frameSize = 0;
+        for (Object buffer: frame.values()) {
+            frameSize += estimateSize(buffer);
+        }
+        dataSize += frameSize - frame.dataSize;
+        frame.dataSize = frameSize;
+    }
+
     private void dumpBuffer() {
         int index = 0;
-        long totalDataSize = 0;
-        for (Map<BufferKey<?>, Object> frame: history) {
-            long frameSize = MemoryUtils.getSize(frame, stopAt);
-            totalDataSize += frameSize;
-            logger.debug(((index == currentFrame) ? "* " : "  ") + " " + ((index < 10) ? "0" : "") + index + ": " + frame.size() + " buffers (size: " + (frameSize / 1024) + " KB)");
+        for (Frame frame: history) {
+            logger.debug(((index == currentFrame) ? "* " : "  ") + " " + ((index < 10) ? "0" : "") + index + ": " + frame.size() + " buffers (size: " + (frame.dataSize / 1024) + " KB)");
             index++;
         }
-        logger.debug("   Total data size: " + (totalDataSize / 1024L) + " KB");
+        logger.debug("   Total data size: " + (dataSize / 1024L) + " KB");
     }
     
     private void updateActions() {
@@ -499,16 +1002,135 @@ public class UndoManager {
 
     private Action undoAction, redoAction;
     private final int maxFrames;
-    private final LinkedList<Map<BufferKey<?>, Object>> history = new LinkedList<>();
+    private final long maxDataSize;
+    private final List<Frame> history = new ArrayList<>();
+    private final Map<BufferKey<?>, FrameIndex> frameIndices = new WeakHashMap<>();
     private int currentFrame;
-    private final Map<BufferKey<?>, Object> readOnlyBufferCache = new WeakHashMap<>();
-    private final Map<BufferKey<?>, Object> writeableBufferCache = new WeakHashMap<>();
+    private final ConcurrentWeakKeyMap<BufferKey<?>, Object> readOnlyBufferCache = new ConcurrentWeakKeyMap<>();
+    private final ConcurrentWeakKeyMap<BufferKey<?>, Object> writeableBufferCache = new ConcurrentWeakKeyMap<>();
     private final List<UndoListener> listeners = new ArrayList<>();
     private final Map<BufferKey<?>, UndoListener> keyListeners = new WeakHashMap<>();
     private boolean savePointArmed;
     private final Set<Reference<Snapshot>> snapshots = new HashSet<>();
     private Set<Class<?>> stopAt;
+    private boolean deltaCompression;
+    private int maxInMemoryFrames = Integer.MAX_VALUE;
+    private SpillFile spillFile;
+    /**
+     * The references to the keys of the buffers in the spill file, by which
+     * the buffers of keys which are garbage collected can be released.
+     */
+    private final Map<SpillFile.Entry, Reference<?>> spillReferences = new HashMap<>();
+    private final ReferenceQueue<BufferKey<?>> spillReferenceQueue = new ReferenceQueue<>();
+    private long dataSize;
 
     private static final int DEFAULT_MAX_FRAMES = 25;
+    private static final long OBJECT_OVERHEAD = 16L, ARRAY_OVERHEAD = 16L;
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(UndoManager.class);
+
+    /**
+     * A frame of the undo history, containing the versions of the buffers
+     * which were copied for editing in it, and the estimated size of those
+     * buffers. Each frame has an id which is one higher than that of the
+     * previous frame, and which does not change when older frames are
+     * removed, so that the index of a frame in the history is its id minus
+     * the id of the oldest frame.
+     */
+    private static final class Frame extends WeakHashMap<BufferKey<?>, Object> {
+        Frame(int id) {
+            this.id = id;
+        }
+
+        final int id;
+        long dataSize;
+    }
+
+    /**
+     * A weak reference to the key of a buffer in the spill file, through
+     * which the buffer can be released when the key is garbage collected and
+     * the buffer therefore dropped from its frame.
+     */
+    private static final class SpillReference extends WeakReference<BufferKey<?>> {
+        SpillReference(BufferKey<?> key, SpillFile.Entry spillEntry, ReferenceQueue<BufferKey<?>> queue) {
+            super(key, queue);
+            this.spillEntry = spillEntry;
+        }
+
+        final SpillFile.Entry spillEntry;
+    }
+
+    /**
+     * The ids of the frames which contain a version of a buffer, in ascending
+     * order, so that the most recent version as of any frame can be found
+     * with a binary search rather than by checking every frame.
+     */
+    private static final class FrameIndex {
+        void add(int id) {
+            if ((size > 0) && (ids[size - 1] >= id)) {
+                // Not the most recent frame; only happens when buffers are
+                // moved to the oldest frame
+                final int index = Arrays.binarySearch(ids, 0, size, id);
+                if (index >= 0) {
+                    return;
+                }
+                insertAt(-index - 1, id);
+            } else {
+                insertAt(size, id);
+            }
+        }
+
+        boolean remove(int id) {
+            final int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        /**
+         * Get the highest id which is lower than or equal to an id.
+         *
+         * @return The highest id lower than or equal to the specified id, or
+         * -1 if there is none.
+         */
+        int floor(int id) {
+            final int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                return id;
+            } else {
+                final int insertionPoint = -index - 1;
+                return (insertionPoint > 0) ? ids[insertionPoint - 1] : -1;
+            }
+        }
+
+        /**
+         * Get the lowest id which is higher than an id.
+         *
+         * @return The lowest id higher than the specified id, or -1 if there
+         * is none.
+         */
+        int higher(int id) {
+            final int index = Arrays.binarySearch(ids, 0, size, id);
+            final int next = (index >= 0) ? index + 1 : -index - 1;
+            return (next < size) ? ids[next] : -1;
+        }
+
+        private void insertAt(int index, int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            ids[index] = id;
+            size++;
+        }
+
+        private int[] ids = new int[4];
+        private int size;
+    }
 }
\ No newline at end of file
@@ -24,6 +24,7 @@ import java.util.Random;
  */
 public final class SimplexNoise {
     public SimplexNoise(long seed) {
+        this.seed = seed;
         short[] permutation = new short[256];
         for (short i = 0; i < 256; i++) {
             permutation[i] = i;
@@ -41,6 +42,10 @@ public final class SimplexNoise {
         }
     }
 
+    public long getSeed() {
+        return seed;
+    }
+
     /**
      * 2D simplex noise
      */
@@ -313,6 +318,7 @@ public final class SimplexNoise {
             new Grad(-1,1,1,0),new Grad(-1,1,-1,0),new Grad(-1,-1,1,0),new Grad(-1,-1,-1,0)};
 
     // To remove the need for index wrapping, double the permutation table length
+    private final long seed;
     private final short perm[] = new short[512];
     private final short permMod12[] = new short[512];
 
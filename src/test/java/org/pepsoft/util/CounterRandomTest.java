@@ -0,0 +1,73 @@
+package org.pepsoft.util;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.*;
+
+public class CounterRandomTest {
+    @Test
+    public void testSplitMixSequence() {
+        final SplittableRandom splittableRandom = new SplittableRandom(SEED);
+        final CounterRandom random = new CounterRandom(SEED);
+        for (int i = 1; i <= 1000; i++) {
+            assertEquals(splittableRandom.nextLong(), random.getLong(i));
+        }
+    }
+
+    @Test
+    public void testFill() {
+        final CounterRandom random = new CounterRandom(SEED);
+        final long[] longs = new long[100];
+        final int[] ints = new int[100];
+        final double[] doubles = new double[100];
+        final float[] floats = new float[100];
+        random.fill(longs, -50);
+        random.fill(ints, -50, 7);
+        random.fill(doubles, -50);
+        random.fill(floats, -50);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(random.getLong(i - 50), longs[i]);
+            assertEquals(random.getInt(i - 50, 7), ints[i]);
+            assertTrue((ints[i] >= 0) && (ints[i] < 7));
+            assertEquals(random.getDouble(i - 50), doubles[i], 0.0);
+            assertEquals(random.getFloat(i - 50), floats[i], 0.0f);
+            assertTrue((floats[i] >= 0.0f) && (floats[i] < 1.0f));
+        }
+    }
+
+    @Test
+    public void testCoordinates() {
+        final CounterRandom random = new CounterRandom(SEED);
+        final Set<Long> values = new HashSet<>();
+        long bitCount = 0;
+        for (int x = -10; x < 10; x++) {
+            for (int y = -10; y < 10; y++) {
+                for (int z = -10; z < 10; z++) {
+                    final long value = random.getLong(x, y, z);
+                    assertEquals(CounterRandom.hash(SEED, x, y, z), value);
+                    values.add(value);
+                    bitCount += Long.bitCount(value);
+                }
+            }
+        }
+        // No collisions, and roughly half the bits set
+        assertEquals(8000, values.size());
+        assertEquals(0.5, bitCount / (8000.0 * 64), 0.01);
+        assertEquals(CounterRandom.hash(SEED, 3, 4), CounterRandom.hash(SEED, 3, 4, 0));
+        assertNotEquals(random.getLong(1, 2, 3), random.getLong(3, 2, 1));
+    }
+
+    @Test
+    public void testSplit() {
+        final CounterRandom random = new CounterRandom(SEED);
+        assertEquals(random.split(1), random.split(1));
+        assertNotEquals(random.split(1).getLong(0), random.split(2).getLong(0));
+        assertNotEquals(random.getLong(0), random.split(0).getLong(0));
+    }
+
+    private static final long SEED = 0x5eed5eedL;
+}
@@ -0,0 +1,142 @@
+package org.pepsoft.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FastPerlinTest {
+    @Test
+    public void testSampleGrid() {
+        testSampleGrid(-3.7, 12.1, 0.037);
+        // Every column in a different lattice cell
+        testSampleGrid(-100.3, 17.9, 1.7);
+    }
+
+    private void testSampleGrid(double x0, double y0, double step) {
+        final FastPerlin fastPerlin = new FastPerlin(SEED);
+        final float[] grid = new float[WIDTH * HEIGHT];
+        fastPerlin.sampleGrid(grid, x0, y0, step, WIDTH, HEIGHT);
+        for (int j = 0; j < HEIGHT; j++) {
+            for (int i = 0; i < WIDTH; i++) {
+                assertEquals(fastPerlin.sampleResult(x0 + i * step, y0 + j * step), grid[j * WIDTH + i], 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testPermutationPairsCache() {
+        final short[] pairs = FastPerlin.getPermutationPairs(SEED);
+        assertSame(pairs, FastPerlin.getPermutationPairs(SEED));
+        assertArrayEquals(FastPerlin.createPermutationPairs(SEED), pairs);
+        assertArrayEquals(FastPerlin.createPermutationPairs(SEED + 1), FastPerlin.getPermutationPairs(SEED + 1));
+    }
+
+    @Test
+    public void testSampleVolume() {
+        final FastPerlin fastPerlin = new FastPerlin(SEED);
+        final float[] volume = new float[WIDTH * HEIGHT * DEPTH];
+        fastPerlin.sampleVolume(volume, 5.3, -0.2, 250.9, 0.13, WIDTH, HEIGHT, DEPTH);
+        for (int k = 0; k < DEPTH; k++) {
+            for (int j = 0; j < HEIGHT; j++) {
+                for (int i = 0; i < WIDTH; i++) {
+                    assertEquals(fastPerlin.sampleResult(5.3 + i * 0.13, -0.2 + j * 0.13, 250.9 + k * 0.13), volume[(k * HEIGHT + j) * WIDTH + i], 0.0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPeriodicFullPeriod() {
+        // With a period of 256 the wrapped lattice is the same as the normal
+        // one
+        final FastPerlin fastPerlin = new FastPerlin(SEED);
+        final Random random = new Random(SEED);
+        for (int i = 0; i < 10000; i++) {
+            final double x = random.nextDouble() * 1000 - 500, y = random.nextDouble() * 1000 - 500, z = random.nextDouble() * 1000 - 500;
+            assertEquals(fastPerlin.sampleResult(x, y), fastPerlin.samplePeriodic(x, y, 256, 256), 0.0f);
+            assertEquals(fastPerlin.sampleResult(x, y, z), fastPerlin.samplePeriodic(x, y, z, 256, 256, 256), 0.0f);
+        }
+    }
+
+    @Test
+    public void testPeriodicSeamless() {
+        final FastPerlin fastPerlin = new FastPerlin(SEED);
+        final Random random = new Random(SEED);
+        for (int[] periods: new int[][] {{1, 1}, {3, 7}, {16, 5}, {300, 2}}) {
+            final int periodX = periods[0], periodY = periods[1];
+            for (int i = 0; i < 1000; i++) {
+                // Multiples of 1/64 so that adding the period is exact
+                final double x = (random.nextInt(64000) - 32000) / 64.0, y = (random.nextInt(64000) - 32000) / 64.0, z = random.nextInt(6400) / 64.0;
+                final float value = fastPerlin.samplePeriodic(x, y, periodX, periodY);
+                assertEquals(value, fastPerlin.samplePeriodic(x + periodX, y, periodX, periodY), 0.0f);
+                assertEquals(value, fastPerlin.samplePeriodic(x, y - periodY, periodX, periodY), 0.0f);
+                final float value3D = fastPerlin.samplePeriodic(x, y, z, periodX, periodY, 3);
+                assertEquals(value3D, fastPerlin.samplePeriodic(x - periodX, y + periodY, z + 3, periodX, periodY, 3), 0.0f);
+            }
+            // Continuous across the edges
+            for (int i = 0; i < 100; i++) {
+                final double y = random.nextDouble() * periodY;
+                assertEquals(fastPerlin.samplePeriodic(0.0, y, periodX, periodY), fastPerlin.samplePeriodic(periodX - 1e-7, y, periodX, periodY), 1e-5);
+                assertEquals(fastPerlin.samplePeriodic(y, 0.0, periodX, periodY), fastPerlin.samplePeriodic(y, periodY - 1e-7, periodX, periodY), 1e-5);
+            }
+        }
+    }
+
+    @Test
+    public void testSamplePeriodicGrid() {
+        final FastPerlin fastPerlin = new FastPerlin(SEED);
+        final int size = 32, period = 4;
+        final double step = (double) period / size;
+        // Two periods in each direction
+        final float[] grid = new float[4 * size * size];
+        fastPerlin.samplePeriodicGrid(grid, 0.0, 0.0, step, 2 * size, 2 * size, period, period);
+        for (int j = 0; j < 2 * size; j++) {
+            for (int i = 0; i < 2 * size; i++) {
+                final float value = grid[j * 2 * size + i];
+                assertEquals(fastPerlin.samplePeriodic(i * step, j * step, period, period), value, 0.0f);
+                assertEquals(grid[(j % size) * 2 * size + (i % size)], value, 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testSampleWithDerivatives() {
+        final FastPerlin fastPerlin = new FastPerlin(SEED);
+        final Random random = new Random(SEED);
+        final float[] out2D = new float[3], out3D = new float[4];
+        for (int i = 0; i < 10000; i++) {
+            final double x = random.nextDouble() * 100 - 50, y = random.nextDouble() * 100 - 50, z = random.nextDouble() * 100 - 50;
+            fastPerlin.sampleWithDerivatives(x, y, out2D);
+            assertEquals(fastPerlin.sampleResult(x, y), out2D[0], 0.0f);
+            assertEquals((fastPerlin.sampleResult(x + H, y) - fastPerlin.sampleResult(x - H, y)) / (2 * H), out2D[1], 2e-3);
+            assertEquals((fastPerlin.sampleResult(x, y + H) - fastPerlin.sampleResult(x, y - H)) / (2 * H), out2D[2], 2e-3);
+            fastPerlin.sampleWithDerivatives(x, y, z, out3D);
+            assertEquals(fastPerlin.sampleResult(x, y, z), out3D[0], 0.0f);
+            assertEquals((fastPerlin.sampleResult(x + H, y, z) - fastPerlin.sampleResult(x - H, y, z)) / (2 * H), out3D[1], 2e-3);
+            assertEquals((fastPerlin.sampleResult(x, y + H, z) - fastPerlin.sampleResult(x, y - H, z)) / (2 * H), out3D[2], 2e-3);
+            assertEquals((fastPerlin.sampleResult(x, y, z + H) - fastPerlin.sampleResult(x, y, z - H)) / (2 * H), out3D[3], 2e-3);
+        }
+    }
+
+    @Test
+    public void testSampleGridWithDerivatives() {
+        final FastPerlin fastPerlin = new FastPerlin(SEED);
+        final float[] values = new float[WIDTH * HEIGHT], dx = new float[WIDTH * HEIGHT], dy = new float[WIDTH * HEIGHT];
+        final float[] expected = new float[3];
+        fastPerlin.sampleGridWithDerivatives(values, dx, dy, -3.7, 12.1, 0.037, WIDTH, HEIGHT);
+        for (int j = 0; j < HEIGHT; j++) {
+            for (int i = 0; i < WIDTH; i++) {
+                fastPerlin.sampleWithDerivatives(-3.7 + i * 0.037, 12.1 + j * 0.037, expected);
+                assertEquals(expected[0], values[j * WIDTH + i], 0.0f);
+                assertEquals(expected[1], dx[j * WIDTH + i], 1e-6f);
+                assertEquals(expected[2], dy[j * WIDTH + i], 1e-6f);
+            }
+        }
+    }
+
+    private static final long SEED = 0x5eed5eedL;
+    private static final double H = 1e-3;
+    private static final int WIDTH = 67, HEIGHT = 31, DEPTH = 9;
+}
@@ -0,0 +1,113 @@
+package org.pepsoft.util;
+
+import org.junit.Test;
+import se.liu.itn.stegu.SimplexNoise;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FastSimplexTest {
+    @Test
+    public void testAgainstReference() {
+        final Random random = new Random(0);
+        for (long seed = 0; seed < 5; seed++) {
+            final SimplexNoise reference = new SimplexNoise(seed);
+            final FastSimplex fastSimplex = new FastSimplex(seed);
+            for (int i = 0; i < 10000; i++) {
+                final double x = random.nextDouble() * 600 - 300, y = random.nextDouble() * 600 - 300, z = random.nextDouble() * 600 - 300;
+                assertEquals(reference.noise(x, y), fastSimplex.sampleResult(x, y), 1e-4);
+                assertEquals(reference.noise(x, y, z), fastSimplex.sampleResult(x, y, z), 1e-4);
+            }
+        }
+    }
+
+    @Test
+    public void testSampleGrid() {
+        final FastSimplex fastSimplex = new FastSimplex(42L);
+        final float[] grid = new float[SIZE * SIZE];
+        fastSimplex.sampleGrid(grid, -7.3, 2.9, 0.087, SIZE, SIZE);
+        for (int j = 0; j < SIZE; j++) {
+            for (int i = 0; i < SIZE; i++) {
+                assertEquals(fastSimplex.sampleResult(-7.3 + i * 0.087, 2.9 + j * 0.087), grid[j * SIZE + i], 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testSampleGridParallel() throws ProgressReceiver.OperationCancelled {
+        final FastSimplex fastSimplex = new FastSimplex(42L);
+        // Not a multiple of the tile size in either direction
+        final int width = 700, height = 300;
+        final float[] expected = new float[width * height], actual = new float[width * height];
+        fastSimplex.sampleGrid(expected, -123.4, 56.7, 0.0173, width, height);
+        fastSimplex.sampleGridParallel(actual, -123.4, 56.7, 0.0173, width, height, null, null);
+        assertArrayEquals(expected, actual, 0.0f);
+    }
+
+    @Test
+    public void testSampleVolume() {
+        final FastSimplex fastSimplex = new FastSimplex(42L);
+        final float[] volume = new float[SIZE * SIZE * DEPTH];
+        fastSimplex.sampleVolume(volume, -7.3, 2.9, -0.4, 0.087, SIZE, SIZE, DEPTH);
+        for (int k = 0; k < DEPTH; k++) {
+            for (int j = 0; j < SIZE; j++) {
+                for (int i = 0; i < SIZE; i++) {
+                    assertEquals(fastSimplex.sampleResult(-7.3 + i * 0.087, 2.9 + j * 0.087, -0.4 + k * 0.087), volume[(k * SIZE + j) * SIZE + i], 0.0f);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSampleWithDerivatives() {
+        final FastSimplex fastSimplex = new FastSimplex(42L);
+        final Random random = new Random(0);
+        final float[] out2D = new float[3], out3D = new float[4];
+        int checkedCount = 0;
+        for (int i = 0; i < 10000; i++) {
+            final double x = random.nextDouble() * 100 - 50, y = random.nextDouble() * 100 - 50, z = random.nextDouble() * 100 - 50;
+            fastSimplex.sampleWithDerivatives(x, y, out2D);
+            assertEquals(fastSimplex.sampleResult(x, y), out2D[0], 0.0f);
+            assertEquals((fastSimplex.sampleResult(x + H, y) - fastSimplex.sampleResult(x - H, y)) / (2 * H), out2D[1], 1e-2);
+            assertEquals((fastSimplex.sampleResult(x, y + H) - fastSimplex.sampleResult(x, y - H)) / (2 * H), out2D[2], 1e-2);
+            fastSimplex.sampleWithDerivatives(x, y, z, out3D);
+            assertEquals(fastSimplex.sampleResult(x, y, z), out3D[0], 0.0f);
+            // The three dimensional reference noise is slightly discontinuous
+            // at the simplex boundaries, due to the radius of its corner
+            // kernels, so skip the points where that is in the way
+            checkedCount += assertDerivative(out3D[1], fastSimplex.sampleResult(x - H, y, z), out3D[0], fastSimplex.sampleResult(x + H, y, z));
+            checkedCount += assertDerivative(out3D[2], fastSimplex.sampleResult(x, y - H, z), out3D[0], fastSimplex.sampleResult(x, y + H, z));
+            checkedCount += assertDerivative(out3D[3], fastSimplex.sampleResult(x, y, z - H), out3D[0], fastSimplex.sampleResult(x, y, z + H));
+        }
+        assertTrue(checkedCount > 29000);
+    }
+
+    @Test
+    public void testSampleGridWithDerivatives() {
+        final FastSimplex fastSimplex = new FastSimplex(42L);
+        final float[] values = new float[SIZE * SIZE], dx = new float[SIZE * SIZE], dy = new float[SIZE * SIZE], sample = new float[3];
+        fastSimplex.sampleGridWithDerivatives(values, dx, dy, -7.3, 2.9, 0.087, SIZE, SIZE);
+        for (int j = 0; j < SIZE; j++) {
+            for (int i = 0; i < SIZE; i++) {
+                fastSimplex.sampleWithDerivatives(-7.3 + i * 0.087, 2.9 + j * 0.087, sample);
+                assertEquals(sample[0], values[j * SIZE + i], 0.0f);
+                assertEquals(sample[1], dx[j * SIZE + i], 0.0f);
+                assertEquals(sample[2], dy[j * SIZE + i], 0.0f);
+            }
+        }
+    }
+
+    private int assertDerivative(float derivative, float before, float value, float after) {
+        if (Math.abs((after - value) - (value - before)) / H > 0.05) {
+            return 0;
+        }
+        assertEquals((after - before) / (2 * H), derivative, 1e-2);
+        return 1;
+    }
+
+    private static final double H = 1e-4;
+    private static final int SIZE = 50, DEPTH = 10;
+}
@@ -0,0 +1,26 @@
+package org.pepsoft.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FractalNoiseTest {
+    @Test
+    public void testRangeAndGrid() {
+        for (FractalNoise.Type type: FractalNoise.Type.values()) {
+            final FractalNoise noise = new FractalNoise(type, 42L, 6, 2.0, 0.5);
+            final float[] grid = new float[SIZE * SIZE];
+            noise.getValues(grid, 3.1, 7.2, 0.071, SIZE, SIZE);
+            for (int j = 0; j < SIZE; j++) {
+                for (int i = 0; i < SIZE; i++) {
+                    final float value = noise.getValue(3.1 + i * 0.071, 7.2 + j * 0.071);
+                    assertTrue(type + ": " + value, (value >= noise.getMinValue()) && (value <= noise.getMaxValue()));
+                    assertEquals(value, grid[j * SIZE + i], 1e-5f);
+                }
+            }
+        }
+    }
+
+    private static final int SIZE = 50;
+}
@@ -0,0 +1,38 @@
+package org.pepsoft.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class NoiseNodeTest {
+    @Test
+    public void testEvaluate() {
+        final PerlinNoise base = new PerlinNoise(1L), warpX = new PerlinNoise(2L), warpY = new PerlinNoise(3L);
+        final WorleyNoise worleyNoise = new WorleyNoise(4L);
+        final NoiseNode node = NoiseNode.perlin(base).scale(50)
+                .warp(NoiseNode.perlin(warpX).scale(20), NoiseNode.perlin(warpY).scale(20), 10)
+                .add(NoiseNode.worley(worleyNoise).scale(30).multiply(0.2f))
+                .add(-0.1f)
+                .clamp(-0.4f, 0.4f);
+        final NoiseNode threshold = node.threshold(0.1f).multiply(NoiseNode.source((x, y) -> (float) x));
+
+        final NoiseEvaluator evaluator = new NoiseEvaluator();
+        final float[] values = new float[WIDTH * HEIGHT], thresholds = new float[WIDTH * HEIGHT];
+        // Twice, to exercise the reuse of the buffers
+        for (int k = 0; k < 2; k++) {
+            evaluator.evaluate(node, values, 100.0, -30.0, 0.5, WIDTH, HEIGHT);
+            evaluator.evaluate(threshold, thresholds, 100.0, -30.0, 0.5, WIDTH, HEIGHT);
+            for (int j = 0; j < HEIGHT; j++) {
+                for (int i = 0; i < WIDTH; i++) {
+                    final double x = 100.0 + i * 0.5, y = -30.0 + j * 0.5;
+                    final double warpedX = x + 10 * warpX.getPerlinNoise(x / 20, y / 20), warpedY = y + 10 * warpY.getPerlinNoise(x / 20, y / 20);
+                    final float expected = Math.min(Math.max(base.getPerlinNoise(warpedX / 50, warpedY / 50) + worleyNoise.getF1(x / 30, y / 30) * 0.2f - 0.1f, -0.4f), 0.4f);
+                    assertEquals(expected, values[j * WIDTH + i], 1e-6f);
+                    assertEquals((values[j * WIDTH + i] >= 0.1f) ? (float) x : 0.0f, thresholds[j * WIDTH + i], 0.0f);
+                }
+            }
+        }
+    }
+
+    private static final int WIDTH = 41, HEIGHT = 23;
+}
@@ -0,0 +1,66 @@
+package org.pepsoft.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.pepsoft.util.NoisePyramid.TILE_SIZE;
+
+public class NoisePyramidTest {
+    @Test
+    public void testLevels() {
+        final PerlinNoise perlinNoise = new PerlinNoise(1L);
+        final NoisePyramid pyramid = NoisePyramid.forPerlinNoise(perlinNoise, 50.0, 64 * 1024 * 1024);
+        // Level 2, tile (1, -1) covers level 0 tiles (4, -4) to (7, -1)
+        final NoisePyramid.Tile tile = pyramid.getTile(2, 1, -1);
+        assertEquals(16 + 4 + 1, pyramid.getTileCount());
+        for (int[] point: new int[][] {{TILE_SIZE, -TILE_SIZE}, {TILE_SIZE + 17, -3}, {2 * TILE_SIZE - 1, -1}}) {
+            final int x = point[0], y = point[1];
+            double total = 0.0;
+            float min = Float.MAX_VALUE, max = -Float.MAX_VALUE;
+            for (int dy = 0; dy < 4; dy++) {
+                for (int dx = 0; dx < 4; dx++) {
+                    final float value = perlinNoise.getPerlinNoise((x * 4 + dx) / 50.0, (y * 4 + dy) / 50.0);
+                    total += value;
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                }
+            }
+            final int index = (y & (TILE_SIZE - 1)) * TILE_SIZE + (x & (TILE_SIZE - 1));
+            assertEquals(total / 16, tile.getAverages()[index], 1e-6);
+            assertEquals(min, tile.getMinima()[index], 1e-6f);
+            assertEquals(max, tile.getMaxima()[index], 1e-6f);
+            assertEquals(tile.getAverages()[index], pyramid.getAverage(2, x, y), 0.0f);
+            assertEquals(min, pyramid.getMinimum(2, x, y), 1e-6f);
+            assertEquals(max, pyramid.getMaximum(2, x, y), 1e-6f);
+        }
+        assertEquals(21, pyramid.getMissCount());
+    }
+
+    @Test
+    public void testLevel0() {
+        // Level 0 tiles should be bit identical to the grid sampled by the
+        // documented origin and step
+        final PerlinNoise perlinNoise = new PerlinNoise(1L);
+        final NoisePyramid pyramid = NoisePyramid.forPerlinNoise(perlinNoise, 50.0, 64 * 1024 * 1024);
+        final float[] expected = new float[TILE_SIZE * TILE_SIZE];
+        perlinNoise.getPerlinNoiseGrid(expected, 3 * TILE_SIZE / 50.0, -2 * TILE_SIZE / 50.0, 1 / 50.0, TILE_SIZE, TILE_SIZE);
+        assertArrayEquals(expected, pyramid.getTile(0, 3, -2).getAverages(), 0.0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxLevel() {
+        NoisePyramid.forPerlinNoise(new PerlinNoise(1L), 50.0, 64 * 1024 * 1024).getTile(NoisePyramid.MAX_LEVEL + 1, 0, 0);
+    }
+
+    @Test
+    public void testBudget() {
+        // Room for one level 1 tile and four level 0 tiles
+        final int tileBytes = TILE_SIZE * TILE_SIZE * 4 + 256;
+        final NoisePyramid pyramid = NoisePyramid.forRandomField(new RandomField(4, 10.0, 1L), 7 * tileBytes);
+        final NoisePyramid.Tile tile = pyramid.getTile(1, 0, 0);
+        assertSame(tile, pyramid.getTile(1, 0, 0));
+        pyramid.getTile(1, 1, 0);
+        assertTrue(pyramid.getEvictionCount() > 0);
+        assertNotSame(tile, pyramid.getTile(1, 0, 0));
+    }
+}
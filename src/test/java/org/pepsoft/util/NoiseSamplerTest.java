@@ -0,0 +1,60 @@
+package org.pepsoft.util;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class NoiseSamplerTest {
+    @Test
+    public void testResults() {
+        final PerlinNoise perlinNoise = new PerlinNoise(SEED);
+        final NoiseSampler sampler = perlinNoise.createSampler();
+        final float[] expected = new float[SIZE * SIZE], actual = new float[SIZE * SIZE];
+        for (int tile = 0; tile < 3; tile++) {
+            // The same columns for consecutive tiles, to exercise the column
+            // cache
+            perlinNoise.getPerlinNoiseGrid(expected, 10.0, tile * SIZE * 0.03, 0.03, SIZE, SIZE);
+            sampler.getPerlinNoiseGrid(actual, 10.0, tile * SIZE * 0.03, 0.03, SIZE, SIZE);
+            assertArrayEquals(expected, actual, 0.0f);
+        }
+        assertEquals(perlinNoise.getPerlinNoise(1.5, 2.5, 3.5), sampler.getPerlinNoise(1.5, 2.5, 3.5), 0.0f);
+    }
+
+    @Test
+    public void testZeroAllocation() {
+        final java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadMXBean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadMXBean;
+        Assume.assumeTrue(allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled());
+        final long threadId = Thread.currentThread().getId();
+
+        final NoiseSampler sampler = new PerlinNoise(SEED).createSampler();
+        final float[] grid = new float[SIZE * SIZE], volume = new float[SIZE * SIZE * 4];
+        // Warm up, which also grows the scratch buffers to their final size
+        sample(sampler, grid, volume, 1000);
+
+        final long before = allocationBean.getThreadAllocatedBytes(threadId);
+        sample(sampler, grid, volume, 100);
+        final long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+        // 100 iterations of more than 20000 samples each; a single allocation
+        // per iteration would already exceed this
+        assertEquals("bytes allocated", 0, allocated, 1000);
+    }
+
+    private void sample(NoiseSampler sampler, float[] grid, float[] volume, int iterations) {
+        for (int i = 0; i < iterations; i++) {
+            // Alternate the columns, so the column cache is invalidated each
+            // time
+            sampler.getPerlinNoiseGrid(grid, i * 0.5, 0.0, 0.01, SIZE, SIZE);
+            sampler.getPerlinNoiseVolume(volume, 0.0, i * 0.5, 7.0, 0.02, SIZE, SIZE, 4);
+            sampler.getPerlinNoise(i, 0.5);
+        }
+    }
+
+    private static final long SEED = 4711L;
+    private static final int SIZE = 64;
+}
@@ -0,0 +1,30 @@
+package org.pepsoft.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class NoiseTileCacheTest {
+    @Test
+    public void testCache() {
+        // Room for two tiles of 64x64
+        final NoiseTileCache cache = new NoiseTileCache(2 * (64 * 64 * 4 + 256));
+        final PerlinNoise perlinNoise = new PerlinNoise(1L);
+        final float[] tile1 = cache.getTile(perlinNoise, 50.0, 0, 0, 64);
+        assertEquals(perlinNoise.getPerlinNoise(63 / 50.0, 63 / 50.0), tile1[63 * 64 + 63], 1e-6f);
+        assertSame(tile1, cache.getTile(perlinNoise, 50.0, 0, 0, 64));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // Different generators, scales and coordinates must not collide
+        assertNotSame(tile1, cache.getTile(new PerlinNoise(2L), 50.0, 0, 0, 64));
+        assertNotSame(tile1, cache.getTile(perlinNoise, 51.0, 0, 0, 64));
+        assertEquals(3, cache.getMissCount());
+
+        // The budget should have been enforced, evicting the least recently
+        // used tile
+        assertEquals(2, cache.getTileCount());
+        assertTrue(cache.getEvictionCount() > 0);
+        assertNotSame(tile1, cache.getTile(perlinNoise, 50.0, 0, 0, 64));
+    }
+}
@@ -0,0 +1,172 @@
+package org.pepsoft.util;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.junit.Assert.*;
+import static org.pepsoft.util.NoiseLevels.LEVEL_COUNT;
+
+public class PerlinNoiseLevelFinderTest {
+    @Test
+    public void testFindLevels() {
+        final PerlinNoise perlinNoise = new PerlinNoise(0);
+        final NoiseLevels levels = PerlinNoiseLevelFinder.findLevels(perlinNoise::getPerlinNoise, -0.5f, 0.5f, 2_000_000);
+
+        // The promillage of independent samples at or above each level should
+        // match
+        final int[] promillages = {10, 100, 250, 500, 750, 900, 990};
+        final int[] hits = new int[promillages.length];
+        final Random random = new Random(12345);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            final float noise = perlinNoise.getPerlinNoise(random.nextDouble() * 256, random.nextDouble() * 256, random.nextDouble() * 256);
+            for (int j = 0; j < promillages.length; j++) {
+                if (noise >= levels.getLevelForPromillage(promillages[j])) {
+                    hits[j]++;
+                }
+            }
+        }
+        for (int j = 0; j < promillages.length; j++) {
+            assertEquals("promillage " + promillages[j], promillages[j], hits[j] * 1000.0 / SAMPLE_COUNT, 2.0);
+        }
+
+        // And should be deterministic
+        final NoiseLevels levels2 = PerlinNoiseLevelFinder.findLevels(perlinNoise::getPerlinNoise, -0.5f, 0.5f, 2_000_000);
+        for (int promillage = 0; promillage <= 1000; promillage++) {
+            assertEquals(levels.getLevelForPromillage(promillage), levels2.getLevelForPromillage(promillage), 0.0f);
+        }
+    }
+
+    @Test
+    public void testFindLevelsConverging() {
+        // Accumulating the samples in rounds should give exactly the same
+        // result as taking them all at once
+        final PerlinNoise perlinNoise = new PerlinNoise(0);
+        final NoiseLevels levels = PerlinNoiseLevelFinder.findLevels(perlinNoise::getPerlinNoise, -0.5f, 0.5f, 0.0f, 1 << 22);
+        final NoiseLevels expected = PerlinNoiseLevelFinder.findLevels(perlinNoise::getPerlinNoise, -0.5f, 0.5f, 1 << 22);
+        for (int promillage = 0; promillage <= 1000; promillage++) {
+            assertEquals(expected.getLevelForPromillage(promillage), levels.getLevelForPromillage(promillage), 0.0f);
+        }
+    }
+
+    @Test
+    public void testCacheFile() throws IOException {
+        final AtomicLong invocations = new AtomicLong();
+        final PerlinNoiseLevelFinder.NoiseFunction noise = (x, y, z) -> {
+            invocations.incrementAndGet();
+            return (float) (x / 256 - 0.5);
+        };
+        final String fileName = PerlinNoiseLevelFinder.getCacheFileName("test-cache-file", -0.5f, 0.5f);
+
+        // Generating the levels should write a cache file
+        final File dir1 = Files.createTempDirectory("levels").toFile();
+        final NoiseLevels levels = PerlinNoiseLevelFinder.getLevels(dir1, "test-cache-file", noise, -0.5f, 0.5f);
+        assertTrue(invocations.get() > 0);
+        final File file1 = new File(dir1, fileName);
+        assertEquals(LEVEL_COUNT * 4, file1.length());
+        assertArrayEquals(new String[] {fileName}, dir1.list());
+
+        // A valid cache file should be used as is
+        final File dir2 = Files.createTempDirectory("levels").toFile();
+        Files.copy(file1.toPath(), new File(dir2, fileName).toPath());
+        final NoiseLevels levels2 = PerlinNoiseLevelFinder.getLevels(dir2, "test-cache-file", (x, y, z) -> {
+            throw new AssertionError("Levels regenerated");
+        }, -0.5f, 0.5f);
+        assertLevelsEqual(levels, levels2);
+
+        // A truncated cache file should be rejected and replaced
+        final File dir3 = Files.createTempDirectory("levels").toFile();
+        final File file3 = new File(dir3, fileName);
+        Files.write(file3.toPath(), new byte[100]);
+        invocations.set(0);
+        final NoiseLevels levels3 = PerlinNoiseLevelFinder.getLevels(dir3, "test-cache-file", noise, -0.5f, 0.5f);
+        assertTrue(invocations.get() > 0);
+        assertLevelsEqual(levels, levels3);
+        assertEquals(LEVEL_COUNT * 4, file3.length());
+
+        // As should one with invalid contents
+        final File dir4 = Files.createTempDirectory("levels").toFile();
+        Files.write(new File(dir4, fileName).toPath(), new byte[LEVEL_COUNT * 4 - 1]);
+        Files.write(new File(dir4, fileName).toPath(), new byte[] {(byte) 0xff}, APPEND);
+        invocations.set(0);
+        final NoiseLevels levels4 = PerlinNoiseLevelFinder.getLevels(dir4, "test-cache-file", noise, -0.5f, 0.5f);
+        assertTrue(invocations.get() > 0);
+        assertLevelsEqual(levels, levels4);
+
+        // A different value range should use a different file
+        assertNotEquals(fileName, PerlinNoiseLevelFinder.getCacheFileName("test-cache-file", -1.0f, 1.0f));
+
+        for (File dir: new File[] {dir1, dir2, dir3, dir4}) {
+            for (File file: dir.listFiles()) {
+                Files.delete(file.toPath());
+            }
+            Files.delete(dir.toPath());
+        }
+    }
+
+    @Test
+    public void testConcurrentAndNestedLookups() throws Exception {
+        // Concurrent lookups of the same levels should generate them once
+        final AtomicLong invocations = new AtomicLong();
+        final PerlinNoiseLevelFinder.NoiseFunction noise = (x, y, z) -> {
+            invocations.incrementAndGet();
+            return (float) (x / 256 - 0.5);
+        };
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<NoiseLevels>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                futures.add(executor.submit(() -> PerlinNoiseLevelFinder.getLevels(null, "test-concurrent", noise, -0.5f, 0.5f)));
+            }
+            final NoiseLevels levels = futures.get(0).get();
+            for (Future<NoiseLevels> future: futures) {
+                assertSame(levels, future.get());
+            }
+            assertEquals(10_000_000L, invocations.get());
+        } finally {
+            executor.shutdown();
+        }
+
+        // A noise function should be able to look up other levels
+        final NoiseLevels outer = PerlinNoiseLevelFinder.getLevels(null, "test-outer", (x, y, z) -> {
+            final NoiseLevels inner = PerlinNoiseLevelFinder.getLevels(null, "test-inner", noise, -0.5f, 0.5f);
+            return inner.getLevelForPromillage(500) + (float) (x / 256 - 0.5);
+        }, -0.5f, 0.5f);
+        assertNotNull(outer);
+    }
+
+    @Test
+    public void testGeneratedCacheFile() throws IOException {
+        // A cache file written by the generation tool should be picked up by
+        // getLevels() without regenerating the levels
+        final File dir = Files.createTempDirectory("levels").toFile();
+        final File file = PerlinNoiseLevelFinder.generateCacheFile("perlin-2d", dir, 1 << 21);
+        assertEquals(PerlinNoiseLevelFinder.getCacheFileName("perlin-2d", -0.5f, 0.5f), file.getName());
+        final NoiseLevels levels = PerlinNoiseLevelFinder.getLevels(dir, "perlin-2d", (x, y, z) -> {
+            throw new AssertionError("Levels regenerated");
+        }, -0.5f, 0.5f);
+        final PerlinNoise perlinNoise = new PerlinNoise(0);
+        final NoiseLevels expected = PerlinNoiseLevelFinder.findLevels((x, y, z) -> perlinNoise.getPerlinNoise(x, y), -0.5f, 0.5f, 1e-4f, 1 << 21);
+        assertLevelsEqual(expected, levels);
+        Files.delete(file.toPath());
+        Files.delete(dir.toPath());
+    }
+
+    private static void assertLevelsEqual(NoiseLevels expected, NoiseLevels actual) {
+        for (int promillage = 0; promillage <= 1000; promillage++) {
+            assertEquals(expected.getLevelForPromillage(promillage), actual.getLevelForPromillage(promillage), 0.0f);
+        }
+    }
+
+    private static final int SAMPLE_COUNT = 500_000;
+}
@@ -0,0 +1,97 @@
+package org.pepsoft.util;
+
+import org.junit.Test;
+import org.pepsoft.util.ProgressReceiver.OperationCancelled;
+import org.pepsoft.util.ProgressReceiver.OperationCancelledByUser;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PerlinNoiseTest {
+    @Test
+    public void testGetLevelForPromillage() {
+        // Spot checks against the original text table
+        assertEquals(0.5f, PerlinNoise.getLevelForPromillage(0), 0.0f);
+        assertEquals(0.40844727f, PerlinNoise.getLevelForPromillage(0.1f), 0.0f);
+        assertEquals(0.3581543f, PerlinNoise.getLevelForPromillage(1), 0.0f);
+        assertEquals(-0.41350937f, PerlinNoise.getLevelForPromillage(999.9f), 0.0f);
+        assertEquals(-0.5f, PerlinNoise.getLevelForPromillage(1000), 0.0f);
+    }
+
+    @Test
+    public void testGetPerlinNoiseGridParallel() throws OperationCancelled {
+        final PerlinNoise perlinNoise = new PerlinNoise(SEED);
+        // Not a multiple of the tile size in either direction
+        final int width = 700, height = 300;
+        final float[] expected = new float[width * height], actual = new float[width * height];
+        perlinNoise.getPerlinNoiseGrid(expected, -123.4, 56.7, 0.0173, width, height);
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            perlinNoise.getPerlinNoiseGridParallel(actual, -123.4, 56.7, 0.0173, width, height, pool, null);
+        } finally {
+            pool.shutdown();
+        }
+        assertArrayEquals(expected, actual, 0.0f);
+    }
+
+    @Test
+    public void testGetPerlinNoiseMask() {
+        final PerlinNoise perlinNoise = new PerlinNoise(SEED);
+        final int width = 300, height = 170;
+        final float[] values = new float[width * height];
+        perlinNoise.getPerlinNoiseGrid(values, -123.4, 56.7, 0.0173, width, height);
+        final long[] mask = new long[(width * height + 63) / 64];
+        // Include levels which occur exactly in the grid, to check the
+        // boundary
+        for (float level: new float[] {PerlinNoise.getLevelForPromillage(1), PerlinNoise.getLevelForPromillage(100), 0.0f, PerlinNoise.getLevelForPromillage(900), values[1234], values[width * height - 1], -0.5f, 0.5f}) {
+            Arrays.fill(mask, -1L);
+            final int count = perlinNoise.getPerlinNoiseMask(mask, -123.4, 56.7, 0.0173, width, height, level);
+            final BitSet bits = BitSet.valueOf(mask);
+            int expectedCount = 0;
+            for (int i = 0; i < width * height; i++) {
+                final boolean expected = values[i] >= level;
+                assertEquals("level " + level + ", index " + i, expected, bits.get(i));
+                if (expected) {
+                    expectedCount++;
+                }
+            }
+            // The unused bits of the last word must have been cleared
+            assertTrue(bits.length() <= width * height);
+            assertEquals(expectedCount, count);
+            assertEquals(expectedCount, perlinNoise.countPerlinNoiseAbove(-123.4, 56.7, 0.0173, width, height, level));
+        }
+    }
+
+    @Test
+    public void testGetPerlinNoiseGridParallelCancellation() {
+        final PerlinNoise perlinNoise = new PerlinNoise(SEED);
+        final AtomicInteger checks = new AtomicInteger();
+        final ProgressReceiver progressReceiver = new ProgressReceiver() {
+            @Override public void setProgress(float progress) {}
+            @Override public void exceptionThrown(Throwable exception) {}
+            @Override public void done() {}
+            @Override public void setMessage(String message) {}
+            @Override public void reset() {}
+            @Override public void subProgressStarted(SubProgressReceiver subProgressReceiver) {}
+
+            @Override
+            public void checkForCancellation() throws OperationCancelled {
+                if (checks.incrementAndGet() > 3) {
+                    throw new OperationCancelledByUser();
+                }
+            }
+        };
+        try {
+            perlinNoise.getPerlinNoiseGridParallel(new float[2048 * 2048], 0.0, 0.0, 0.01, 2048, 2048, null, progressReceiver);
+            fail("Operation not cancelled");
+        } catch (OperationCancelled e) {
+            assertTrue(e instanceof OperationCancelledByUser);
+        }
+    }
+
+    private static final long SEED = 0x5eed5eedL;
+}
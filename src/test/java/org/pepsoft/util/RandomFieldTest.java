@@ -0,0 +1,34 @@
+package org.pepsoft.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class RandomFieldTest {
+    @Test
+    public void testGetValue() {
+        // The fused evaluation should produce exactly the same values as
+        // separate Perlin noise generators
+        for (int bits = 1; bits <= 6; bits++) {
+            final RandomField randomField = new RandomField(bits, 7.3, 1234L);
+            final PerlinNoise[] perlinNoises = new PerlinNoise[bits];
+            for (int i = 0; i < bits; i++) {
+                perlinNoises[i] = new PerlinNoise(1234L + i);
+            }
+            final int[] values = new int[SIZE * SIZE];
+            randomField.getValues(values, -20, 50, 17, SIZE, SIZE);
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++) {
+                    int expected = 0;
+                    for (int i = 0; i < bits; i++) {
+                        expected = (expected << 1) | ((perlinNoises[i].getPerlinNoise((x - 20) / 7.3, (y + 50) / 7.3, 17 / 7.3) > 0) ? 1 : 0);
+                    }
+                    assertEquals(expected, randomField.getValue(x - 20, y + 50, 17));
+                    assertEquals(expected, values[y * SIZE + x]);
+                }
+            }
+        }
+    }
+
+    private static final int SIZE = 40;
+}
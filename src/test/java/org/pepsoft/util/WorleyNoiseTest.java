@@ -0,0 +1,98 @@
+package org.pepsoft.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class WorleyNoiseTest {
+    @Test
+    public void testAgainstBruteForce() {
+        final WorleyNoise worleyNoise = new WorleyNoise(SEED);
+        final Random random = new Random(SEED);
+        final float[] out = new float[2];
+        final double[] point = new double[3];
+        for (int i = 0; i < 1000; i++) {
+            final double x = random.nextDouble() * 200 - 100, y = random.nextDouble() * 200 - 100, z = random.nextDouble() * 200 - 100;
+            final int cx = (int) Math.floor(x), cy = (int) Math.floor(y), cz = (int) Math.floor(z);
+
+            // Search a wider neighbourhood than the implementation
+            double f1 = Double.MAX_VALUE, f2 = Double.MAX_VALUE;
+            for (int dy = -4; dy <= 4; dy++) {
+                for (int dx = -4; dx <= 4; dx++) {
+                    worleyNoise.getFeaturePoint(cx + dx, cy + dy, point);
+                    final double distance = Math.hypot(point[0] - x, point[1] - y);
+                    if (distance < f1) {
+                        f2 = f1;
+                        f1 = distance;
+                    } else if (distance < f2) {
+                        f2 = distance;
+                    }
+                }
+            }
+            worleyNoise.getF1F2(x, y, out);
+            assertEquals(f1, out[0], 1e-5);
+            assertEquals(f2, out[1], 1e-5);
+
+            f1 = Double.MAX_VALUE;
+            f2 = Double.MAX_VALUE;
+            for (int dz = -3; dz <= 3; dz++) {
+                for (int dy = -3; dy <= 3; dy++) {
+                    for (int dx = -3; dx <= 3; dx++) {
+                        worleyNoise.getFeaturePoint(cx + dx, cy + dy, cz + dz, point);
+                        final double distance = Math.sqrt((point[0] - x) * (point[0] - x) + (point[1] - y) * (point[1] - y) + (point[2] - z) * (point[2] - z));
+                        if (distance < f1) {
+                            f2 = f1;
+                            f1 = distance;
+                        } else if (distance < f2) {
+                            f2 = distance;
+                        }
+                    }
+                }
+            }
+            worleyNoise.getF1F2(x, y, z, out);
+            assertEquals(f1, out[0], 1e-5);
+            assertEquals(f2, out[1], 1e-5);
+        }
+    }
+
+    @Test
+    public void testSampleGrid() {
+        final WorleyNoise worleyNoise = new WorleyNoise(SEED);
+        final int width = 101, height = 37;
+        final float[] f1 = new float[width * height], f2 = new float[width * height];
+        final float[] expected = new float[2];
+        worleyNoise.sampleGrid(f1, f2, -3.3, 17.1, 0.13, width, height);
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                worleyNoise.getF1F2(-3.3 + i * 0.13, 17.1 + j * 0.13, expected);
+                assertEquals(expected[0], f1[j * width + i], 0.0f);
+                assertEquals(expected[1], f2[j * width + i], 0.0f);
+            }
+        }
+        final float[] f1Only = new float[width * height];
+        worleyNoise.sampleGrid(f1Only, null, -3.3, 17.1, 0.13, width, height);
+        assertArrayEquals(f1, f1Only, 0.0f);
+    }
+
+    @Test
+    public void testSampleGridLargeStep() {
+        // A step much larger than the cell size, as for an overview
+        final WorleyNoise worleyNoise = new WorleyNoise(SEED);
+        final int width = 512, height = 4;
+        final float[] f1 = new float[width * height], f2 = new float[width * height];
+        final float[] expected = new float[2];
+        worleyNoise.sampleGrid(f1, f2, -100_000.5, 2_000.25, 1000.0, width, height);
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                worleyNoise.getF1F2(-100_000.5 + i * 1000.0, 2_000.25 + j * 1000.0, expected);
+                assertEquals(expected[0], f1[j * width + i], 0.0f);
+                assertEquals(expected[1], f2[j * width + i], 0.0f);
+            }
+        }
+    }
+
+    private static final long SEED = 0x5eed5eedL;
+}
@@ -0,0 +1,71 @@
+package org.pepsoft.util.undo;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpillFileTest {
+    @Test
+    public void testReadBack() {
+        final SpillFile spillFile = new SpillFile();
+        try {
+            final Object[] buffers = {new byte[] {1, -2, 3}, new short[] {-1, 2}, new int[] {Integer.MIN_VALUE, 7},
+                    new long[] {Long.MAX_VALUE}, new float[] {1.5f, Float.NaN}, new double[] {-0.0}, new char[] {'x', 'y'}};
+            final List<SpillFile.Entry> entries = new ArrayList<>();
+            for (Object buffer: buffers) {
+                entries.add(spillFile.write(buffer));
+            }
+            for (int i = 0; i < buffers.length; i++) {
+                assertEquals(buffers[i].getClass(), entries.get(i).read().getClass());
+                assertArrayEquals(new Object[] {buffers[i]}, new Object[] {entries.get(i).read()});
+            }
+        } finally {
+            spillFile.close();
+        }
+    }
+
+    @Test
+    public void testSizeBounded() {
+        // With a steady number of live buffers being written and released in
+        // random order, the file should not keep growing
+        final SpillFile spillFile = new SpillFile();
+        try {
+            final Random random = new Random(SEED);
+            final List<SpillFile.Entry> entries = new ArrayList<>();
+            final List<int[]> buffers = new ArrayList<>();
+            long maxLiveBytes = 0, maxFileSize = 0;
+            for (int i = 0; i < 5000; i++) {
+                final int[] buffer = new int[1 + random.nextInt(16384)];
+                buffer[0] = i;
+                buffer[buffer.length - 1] = -i;
+                entries.add(spillFile.write(buffer));
+                buffers.add(buffer);
+                if (entries.size() > 20) {
+                    final int index = random.nextInt(entries.size());
+                    final SpillFile.Entry entry = entries.remove(index);
+                    final int[] expected = buffers.remove(index);
+                    assertArrayEquals(expected, (int[]) entry.read());
+                    entry.release();
+                }
+                maxLiveBytes = Math.max(maxLiveBytes, spillFile.getLiveBytes());
+                maxFileSize = Math.max(maxFileSize, spillFile.getFileSize());
+            }
+            assertTrue("File size " + maxFileSize + " for at most " + maxLiveBytes + " live bytes", maxFileSize < 3 * maxLiveBytes);
+
+            // Releasing everything should reset the file
+            for (SpillFile.Entry entry: entries) {
+                entry.release();
+            }
+            assertEquals(0L, spillFile.getLiveBytes());
+            assertEquals(0L, spillFile.getFileSize());
+        } finally {
+            spillFile.close();
+        }
+    }
+
+    private static final long SEED = 4711L;
+}
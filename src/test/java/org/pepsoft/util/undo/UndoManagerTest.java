@@ -0,0 +1,421 @@
+package org.pepsoft.util.undo;
+
+import org.junit.Test;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class UndoManagerTest {
+    @Test
+    public void testDeltaCompression() {
+        final UndoManager undoManager = new UndoManager(100);
+        undoManager.setDeltaCompression(true);
+        testUndoRedo(undoManager);
+    }
+
+    @Test
+    public void testSpilling() {
+        UndoManager undoManager = new UndoManager(100);
+        undoManager.setMaxInMemoryFrames(3);
+        testUndoRedo(undoManager);
+
+        undoManager = new UndoManager(100);
+        undoManager.setMaxInMemoryFrames(3);
+        undoManager.setDeltaCompression(true);
+        testUndoRedo(undoManager);
+
+        // Only the three most recent frames, and the current version of the
+        // buffer, should be on the heap
+        final long bufferSize = UndoManager.estimateSize(new short[65536]);
+        undoManager = new UndoManager(100);
+        undoManager.setMaxInMemoryFrames(3);
+        undoManager.addBuffer(SHORT_KEY, new short[65536]);
+        for (int frame = 1; frame <= 30; frame++) {
+            undoManager.savePoint();
+            undoManager.getBufferForEditing(SHORT_KEY)[frame] = (short) frame;
+        }
+        assertTrue(undoManager.getEstimatedDataSize() < 4 * bufferSize);
+        for (int frame = 29; frame >= 0; frame--) {
+            assertTrue(undoManager.undo());
+            final short[] buffer = undoManager.getBuffer(SHORT_KEY);
+            assertEquals(frame, buffer[frame]);
+            assertEquals(0, buffer[frame + 1]);
+        }
+        undoManager.clear();
+    }
+
+    @Test
+    public void testEditAfterUndoPastSpilledFrames() {
+        // Editing right after an undo, without a save point, edits the
+        // version in the frame which was undone to, which may have been
+        // spilled
+        for (boolean deltaCompression: new boolean[] {false, true}) {
+            final UndoManager undoManager = new UndoManager(100);
+            undoManager.setMaxInMemoryFrames(2);
+            undoManager.setDeltaCompression(deltaCompression);
+            undoManager.addBuffer(SHORT_KEY, new short[16]);
+            for (int frame = 1; frame <= 6; frame++) {
+                undoManager.savePoint();
+                undoManager.getBufferForEditing(SHORT_KEY)[frame] = (short) frame;
+            }
+            for (int i = 0; i < 5; i++) {
+                assertTrue(undoManager.undo());
+            }
+            final short[] buffer = undoManager.getBufferForEditing(SHORT_KEY);
+            assertEquals(1, buffer[1]);
+            assertEquals(0, buffer[2]);
+            buffer[0] = -1;
+            assertSame(buffer, undoManager.getBuffer(SHORT_KEY));
+            assertFalse(undoManager.redo());
+            assertTrue(undoManager.undo());
+            assertEquals(0, undoManager.getBuffer(SHORT_KEY)[0]);
+            assertEquals(0, undoManager.getBuffer(SHORT_KEY)[1]);
+            undoManager.clear();
+        }
+    }
+
+    @Test
+    public void testSpilledCollectedKey() throws InterruptedException {
+        // The spilled versions of a buffer should be released when its key
+        // is garbage collected
+        final UndoManager undoManager = new UndoManager(100);
+        undoManager.setMaxInMemoryFrames(1);
+        BufferKey<short[]> key = new NamedKey("collected");
+        undoManager.addBuffer(key, new short[16]);
+        undoManager.addBuffer(SHORT_KEY, new short[16]);
+        for (int frame = 1; frame <= 5; frame++) {
+            undoManager.savePoint();
+            undoManager.getBufferForEditing(key)[frame] = (short) frame;
+            undoManager.getBufferForEditing(SHORT_KEY)[frame] = (short) frame;
+        }
+        undoManager.savePoint();
+        final long spilledDataSize = undoManager.getSpilledDataSize();
+        assertTrue(spilledDataSize > 0);
+        final Reference<BufferKey<short[]>> keyRef = new WeakReference<>(key);
+        key = null;
+        collectGarbage(keyRef);
+        assertEquals(spilledDataSize / 2, undoManager.getSpilledDataSize());
+        undoManager.clear();
+        assertEquals(0L, undoManager.getSpilledDataSize());
+    }
+
+    @Test
+    public void testPruning() {
+        final UndoManager undoManager = new UndoManager(5);
+        undoManager.addBuffer(SHORT_KEY, new short[16]);
+        undoManager.addBuffer(BYTE_KEY, new byte[16]);
+        // The byte buffer is only edited in every third frame, so that its
+        // versions are spread out and moved when the oldest frame is pruned
+        Snapshot snapshot = null;
+        for (int frame = 1; frame <= 20; frame++) {
+            undoManager.savePoint();
+            undoManager.getBufferForEditing(SHORT_KEY)[0] = (short) frame;
+            if (frame % 3 == 0) {
+                undoManager.getBufferForEditing(BYTE_KEY)[0] = (byte) frame;
+            }
+            if (frame == 17) {
+                snapshot = undoManager.getSnapshot();
+            }
+        }
+        assertEquals(17, snapshot.getBuffer(SHORT_KEY)[0]);
+        assertEquals(15, snapshot.getBuffer(BYTE_KEY)[0]);
+        for (int frame = 19; frame >= 16; frame--) {
+            assertTrue(undoManager.undo());
+            assertEquals(frame, undoManager.getBuffer(SHORT_KEY)[0]);
+            assertEquals(frame / 3 * 3, undoManager.getBuffer(BYTE_KEY)[0]);
+        }
+        assertFalse(undoManager.undo());
+        undoManager.removeBuffer(BYTE_KEY);
+        assertNull(undoManager.getBuffer(BYTE_KEY));
+        assertTrue(undoManager.redo());
+        assertNull(undoManager.getBuffer(BYTE_KEY));
+        assertEquals(17, undoManager.getBuffer(SHORT_KEY)[0]);
+    }
+
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        final UndoManager undoManager = new UndoManager(10);
+        final List<BufferKey<int[]>> keys = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            final BufferKey<int[]> key = new BufferKey<>() {};
+            keys.add(key);
+            undoManager.addBuffer(key, new int[16]);
+        }
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            final Thread reader = new Thread(() -> {
+                try {
+                    final Random random = new Random();
+                    while (! done.get()) {
+                        assertNotNull(undoManager.getBuffer(keys.get(random.nextInt(keys.size()))));
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        final Random random = new Random(SEED);
+        for (int frame = 1; frame <= 500; frame++) {
+            undoManager.savePoint();
+            undoManager.getBufferForEditing(keys.get(random.nextInt(keys.size())))[0] = frame;
+            if (random.nextInt(4) == 0) {
+                undoManager.undo();
+            }
+        }
+        done.set(true);
+        for (Thread reader: readers) {
+            reader.join();
+        }
+        assertNull(error.get());
+    }
+
+    private void testUndoRedo(UndoManager undoManager) {
+        final List<short[]> shortStates = new ArrayList<>();
+        final List<byte[]> byteStates = new ArrayList<>();
+        undoManager.addBuffer(SHORT_KEY, new short[4096]);
+        undoManager.addBuffer(BYTE_KEY, new byte[1000]);
+        shortStates.add(new short[4096]);
+        byteStates.add(new byte[1000]);
+        final Random random = new Random(SEED);
+        for (int frame = 1; frame <= 30; frame++) {
+            undoManager.savePoint();
+            edit(undoManager, random);
+            shortStates.add(undoManager.getBuffer(SHORT_KEY).clone());
+            byteStates.add(undoManager.getBuffer(BYTE_KEY).clone());
+        }
+
+        // Undo all the way, redo half way
+        for (int frame = 29; frame >= 0; frame--) {
+            assertTrue(undoManager.undo());
+            assertState(undoManager, shortStates.get(frame), byteStates.get(frame));
+        }
+        assertFalse(undoManager.undo());
+        for (int frame = 1; frame <= 15; frame++) {
+            assertTrue(undoManager.redo());
+            assertState(undoManager, shortStates.get(frame), byteStates.get(frame));
+        }
+
+        // Edit, which discards the redo frames against which the current
+        // versions are stored
+        undoManager.savePoint();
+        shortStates.subList(16, shortStates.size()).clear();
+        byteStates.subList(16, byteStates.size()).clear();
+        edit(undoManager, random);
+        shortStates.add(undoManager.getBuffer(SHORT_KEY).clone());
+        byteStates.add(undoManager.getBuffer(BYTE_KEY).clone());
+        for (int frame = 17; frame <= 20; frame++) {
+            undoManager.savePoint();
+            edit(undoManager, random);
+            shortStates.add(undoManager.getBuffer(SHORT_KEY).clone());
+            byteStates.add(undoManager.getBuffer(BYTE_KEY).clone());
+        }
+        for (int frame = 19; frame >= 0; frame--) {
+            assertTrue(undoManager.undo());
+            assertState(undoManager, shortStates.get(frame), byteStates.get(frame));
+        }
+        final Snapshot snapshot = undoManager.getSnapshot();
+        for (int frame = 1; frame <= 20; frame++) {
+            assertTrue(undoManager.redo());
+            assertState(undoManager, shortStates.get(frame), byteStates.get(frame));
+        }
+        assertArrayEquals(shortStates.get(0), snapshot.getBuffer(SHORT_KEY));
+    }
+
+    @Test
+    public void testNullKey() {
+        // A null key was supported by the weak hash maps of the original
+        // implementation, so the lock-free caches should support it too
+        assertNull(new UndoManager(10).getBuffer(null));
+        final UndoManager undoManager = new UndoManager(10);
+        final short[] buffer = new short[16];
+        undoManager.addBuffer(null, buffer);
+        assertSame(buffer, undoManager.getBuffer(null));
+        undoManager.savePoint();
+        undoManager.<short[]>getBufferForEditing(null)[0] = 1;
+        assertEquals(1, undoManager.<short[]>getBuffer(null)[0]);
+        assertTrue(undoManager.undo());
+        assertEquals(0, undoManager.<short[]>getBuffer(null)[0]);
+    }
+
+    @Test
+    public void testDirtyCollectedKey() throws InterruptedException {
+        // The current frame should no longer be dirty when the only buffer
+        // checked out for editing has been garbage collected
+        final UndoManager undoManager = new UndoManager(10);
+        BufferKey<short[]> key = new NamedKey("collected");
+        undoManager.addBuffer(key, new short[16]);
+        undoManager.savePoint();
+        assertFalse(undoManager.isDirty());
+        undoManager.getBufferForEditing(key)[0] = 1;
+        assertTrue(undoManager.isDirty());
+        final Reference<BufferKey<short[]>> keyRef = new WeakReference<>(key);
+        key = null;
+        collectGarbage(keyRef);
+        assertFalse(undoManager.isDirty());
+    }
+
+    @Test
+    public void testMemoryBudget() {
+        final long bufferSize = UndoManager.estimateSize(new short[65536]);
+        final UndoManager undoManager = new UndoManager(null, null, Integer.MAX_VALUE, 10 * bufferSize);
+        undoManager.addBuffer(SHORT_KEY, new short[65536]);
+        assertEquals(bufferSize, undoManager.getEstimatedDataSize());
+        for (int frame = 1; frame <= 30; frame++) {
+            undoManager.savePoint();
+            undoManager.getBufferForEditing(SHORT_KEY)[frame] = (short) frame;
+            assertTrue(undoManager.getEstimatedDataSize() <= 10 * bufferSize);
+        }
+        assertEquals(10 * bufferSize, undoManager.getEstimatedDataSize());
+        int undos = 0;
+        while (undoManager.undo()) {
+            undos++;
+        }
+        assertEquals(9, undos);
+        assertEquals(21, undoManager.getBuffer(SHORT_KEY)[21]);
+        assertEquals(0, undoManager.getBuffer(SHORT_KEY)[22]);
+
+        // Editing discards the redo frames
+        undoManager.getBufferForEditing(SHORT_KEY);
+        assertEquals(bufferSize, undoManager.getEstimatedDataSize());
+        undoManager.clear();
+        assertEquals(bufferSize, undoManager.getEstimatedDataSize());
+        undoManager.removeBuffer(SHORT_KEY);
+        assertEquals(0L, undoManager.getEstimatedDataSize());
+    }
+
+    @Test
+    public void testMemoryBudgetActions() {
+        // Copying a buffer for editing can discard the only frame to undo to,
+        // in which case the undo action should be disabled
+        final long bufferSize = UndoManager.estimateSize(new short[65536]);
+        final Action undoAction = new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // Do nothing
+            }
+        };
+        final UndoManager undoManager = new UndoManager(undoAction, null, Integer.MAX_VALUE, 3 * bufferSize / 2);
+        undoManager.addBuffer(SHORT_KEY, new short[65536]);
+        assertFalse(undoAction.isEnabled());
+        undoManager.savePoint();
+        assertTrue(undoAction.isEnabled());
+        undoManager.getBufferForEditing(SHORT_KEY)[0] = 1;
+        assertFalse(undoAction.isEnabled());
+        assertFalse(undoManager.undo());
+    }
+
+    @Test
+    public void testMemoryBudgetCollectedKey() throws InterruptedException {
+        final long bufferSize = UndoManager.estimateSize(new short[65536]);
+        final UndoManager undoManager = new UndoManager(null, null, Integer.MAX_VALUE, 7 * bufferSize / 2);
+        undoManager.addBuffer(SHORT_KEY, new short[65536]);
+        BufferKey<short[]> key = new BufferKey<>() {};
+        undoManager.addBuffer(key, new short[65536]);
+        undoManager.savePoint();
+        undoManager.getBufferForEditing(SHORT_KEY)[0] = 1;
+        assertEquals(3 * bufferSize, undoManager.getEstimatedDataSize());
+
+        // Once the key has been garbage collected its buffer no longer counts
+        // towards the budget, so that copying the other buffer again should
+        // not cause the oldest frame to be discarded
+        final Reference<BufferKey<short[]>> keyRef = new WeakReference<>(key);
+        key = null;
+        collectGarbage(keyRef);
+        undoManager.savePoint();
+        undoManager.getBufferForEditing(SHORT_KEY)[0] = 2;
+        assertEquals(3 * bufferSize, undoManager.getEstimatedDataSize());
+        assertTrue(undoManager.undo());
+        assertTrue(undoManager.undo());
+        assertEquals(0, undoManager.getBuffer(SHORT_KEY)[0]);
+    }
+
+    @Test
+    public void testCollectedEqualKey() throws InterruptedException {
+        // Edit the buffer through a different but equal key, which is then
+        // garbage collected, so that the version in frame 1 disappears while
+        // the frame index still lists it
+        final UndoManager undoManager = new UndoManager(10);
+        final BufferKey<short[]> key1 = new NamedKey("buffer");
+        undoManager.addBuffer(key1, new short[16]);
+        undoManager.savePoint();
+        BufferKey<short[]> key2 = new NamedKey("buffer");
+        undoManager.getBufferForEditing(key2)[0] = 1;
+        undoManager.savePoint();
+        final Reference<BufferKey<short[]>> keyRef = new WeakReference<>(key2);
+        key2 = null;
+        collectGarbage(keyRef);
+
+        // The version in frame 0 should be found instead
+        final short[] buffer = undoManager.getBuffer(key1);
+        assertNotNull(buffer);
+        assertEquals(0, buffer[0]);
+        undoManager.getBufferForEditing(key1)[0] = 2;
+        assertTrue(undoManager.undo());
+        assertEquals(0, undoManager.getBuffer(key1)[0]);
+    }
+
+    static void collectGarbage(Reference<?> ref) throws InterruptedException {
+        for (int i = 0; (ref.get() != null) && (i < 100); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("Object not garbage collected", ref.get());
+    }
+
+    private static void edit(UndoManager undoManager, Random random) {
+        final short[] shorts = undoManager.getBufferForEditing(SHORT_KEY);
+        final int start = random.nextInt(shorts.length - 100);
+        for (int i = 0; i < 20; i++) {
+            shorts[start + random.nextInt(100)] = (short) random.nextInt();
+        }
+        // Leave the byte buffer unchanged in some frames
+        if (random.nextBoolean()) {
+            final byte[] bytes = undoManager.getBufferForEditing(BYTE_KEY);
+            // Sometimes change most of the buffer, which should be stored in
+            // full
+            for (int i = 0, count = random.nextBoolean() ? 5 : 900; i < count; i++) {
+                bytes[random.nextInt(bytes.length)] = (byte) random.nextInt();
+            }
+        }
+    }
+
+    private static void assertState(UndoManager undoManager, short[] expectedShorts, byte[] expectedBytes) {
+        assertArrayEquals(expectedShorts, undoManager.getBuffer(SHORT_KEY));
+        assertArrayEquals(expectedBytes, undoManager.getBuffer(BYTE_KEY));
+    }
+
+    private static final class NamedKey implements BufferKey<short[]> {
+        NamedKey(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof NamedKey) && ((NamedKey) o).name.equals(name);
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode();
+        }
+
+        private final String name;
+    }
+
+    private static final BufferKey<short[]> SHORT_KEY = new BufferKey<>() {};
+    private static final BufferKey<byte[]> BYTE_KEY = new BufferKey<>() {};
+    private static final long SEED = 4711L;
+}